@@ -0,0 +1,94 @@
+package bisection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static bisection.NiceTreeDecomposition.*;
+
+/**
+ * Benchmarks the DP of single nodes of a nice tree decomposition of a random partial k-tree.
+ * For every node type the node with the largest table is used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KernelBenchmark {
+
+    @Param({"8", "12"})
+    public int width;
+
+    @Param({"leaf", "introduce", "forget", "join"})
+    public String kind;
+
+    private Graph graph;
+    private NiceTreeNode node;
+    private Map<NiceTreeNode, Table> childTables;
+    private TableAllocator allocator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        TreeDecomposition td = RandomKTree.generate(20 * width, width, 0.5, 1);
+        NiceTreeDecomposition ntd = td.normalize();
+        graph = td.graph;
+        node = largest(ntd, kind);
+        allocator = new TableAllocator();
+
+        // tables of the children
+        childTables = new HashMap<>();
+        for (NiceTreeNode child : node.children()) {
+            childTables.put(child, solve(new NiceTreeDecomposition(graph, child), allocator));
+        }
+    }
+
+    private static NiceTreeNode largest(NiceTreeDecomposition ntd, String kind) {
+        NiceTreeNode best = null;
+        for (List<NiceTreeNode> layer : ntd.layers()) {
+            for (NiceTreeNode n : layer) {
+                if (!n.getClass().getSimpleName().toLowerCase().startsWith(kind)) {
+                    continue;
+                }
+                if (best == null || CostModel.tableSize(n) > CostModel.tableSize(best)) {
+                    best = n;
+                }
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException("no " + kind + " node");
+        }
+        return best;
+    }
+
+    private static Table solve(NiceTreeDecomposition ntd, TableAllocator allocator) {
+        Map<NiceTreeNode, Table> tables = new HashMap<>();
+        for (NiceTreeNode n : MaxBisection.postOrder(ntd)) {
+            tables.put(n, MaxBisection.computeNode(n, tables::get, ntd.graph, allocator, false));
+        }
+        return tables.get(ntd.treeRoot);
+    }
+
+    @Benchmark
+    public double node() {
+        Table table = MaxBisection.computeNode(node, childTables::get, graph, allocator, false);
+        double value = table.get(0, 0);
+        allocator.release(table);
+        return value;
+    }
+
+    @Benchmark
+    public double[] weights() {
+        if (node instanceof IntroduceNode) {
+            return MaxBisection.computeWeightsIntroduce((IntroduceNode) node, graph);
+        }
+        if (node instanceof ForgetNode) {
+            return MaxBisection.computeWeightsLeafOrJoin(new LeafNode(node.bag), graph);
+        }
+        return MaxBisection.computeWeightsLeafOrJoin(node, graph);
+    }
+}
@@ -0,0 +1,112 @@
+package bisection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import static bisection.TreeDecomposition.TreeNode;
+
+/**
+ * Benchmarks reading PACE .gr and .td files of a random partial k-tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+
+    @Param({"5000"})
+    public int vertices;
+
+    @Param({"10"})
+    public int width;
+
+    private Path graphFile;
+    private Path tdFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        TreeDecomposition td = RandomKTree.generate(vertices, width, 0.5, 1);
+        graphFile = Files.createTempFile("benchmark", ".gr");
+        tdFile = Files.createTempFile("benchmark", ".td");
+        writeGraph(td.graph, graphFile);
+        writeTreeDecomposition(td, tdFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(graphFile);
+        Files.deleteIfExists(tdFile);
+    }
+
+    @Benchmark
+    public Graph graph() throws IOException {
+        return Graph.fromFile(graphFile);
+    }
+
+    @Benchmark
+    public TreeDecomposition treeDecomposition() throws IOException {
+        return TreeDecomposition.fromFile(tdFile);
+    }
+
+    private static void writeGraph(Graph graph, Path file) throws IOException {
+        StringBuilder edges = new StringBuilder();
+        int m = 0;
+        for (int u = 1; u <= graph.vertices; u++) {
+            for (int v = u + 1; v <= graph.vertices; v++) {
+                if (graph.getEdgeWeight(u, v) != 0.0) {
+                    edges.append(u).append(' ').append(v).append('\n');
+                    m++;
+                }
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("c random partial k-tree\n");
+            writer.write("p tw " + graph.vertices + " " + m + "\n");
+            writer.write(edges.toString());
+        }
+    }
+
+    private static void writeTreeDecomposition(TreeDecomposition td, Path file) throws IOException {
+        final int numBags = td.countNodes();
+        String[] bags = new String[numBags];
+        StringBuilder edges = new StringBuilder();
+
+        // number bags in DFS order
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        Deque<Integer> ids = new ArrayDeque<>();
+        stack.push(td.root);
+        ids.push(1);
+        int next = 2;
+        while (!stack.isEmpty()) {
+            TreeNode node = stack.pop();
+            int id = ids.pop();
+            StringBuilder bag = new StringBuilder("b ").append(id);
+            for (int v : node.bag) {
+                bag.append(' ').append(v);
+            }
+            bags[id - 1] = bag.append('\n').toString();
+            for (TreeNode child : node.childNodes) {
+                edges.append(id).append(' ').append(next).append('\n');
+                stack.push(child);
+                ids.push(next++);
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("s td " + numBags + " " + (td.width + 1) + " " + td.graph.vertices + "\n");
+            for (String bag : bags) {
+                writer.write(bag);
+            }
+            writer.write(edges.toString());
+        }
+    }
+}
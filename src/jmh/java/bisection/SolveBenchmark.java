@@ -0,0 +1,42 @@
+package bisection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks normalization and the complete DP on random partial k-trees.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SolveBenchmark {
+
+    @Param({"1000"})
+    public int vertices;
+
+    @Param({"4", "8", "11"})
+    public int width;
+
+    private TreeDecomposition td;
+    private NiceTreeDecomposition ntd;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        td = RandomKTree.generate(vertices, width, 0.5, 1);
+        ntd = td.normalize();
+    }
+
+    @Benchmark
+    public NiceTreeDecomposition normalize() {
+        return td.normalize();
+    }
+
+    @Benchmark
+    public double solve() {
+        return MaxBisection.compute(ntd);
+    }
+}
@@ -1,25 +1,36 @@
+import bisection.Bisection;
+import bisection.CostModel;
+import bisection.EliminationOrdering;
 import bisection.Graph;
 import bisection.MaxBisection;
 import bisection.NiceTreeDecomposition;
+import bisection.SolveMetrics;
+import bisection.Table;
 import bisection.TreeDecomposition;
+import bisection.WeightCache;
 import org.apache.commons.cli.*;
 import visualization.Visualizer;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class App {
 
     private static final Options options;
 
     public static void main(String[] args) throws IOException {
-        CommandLineParser parser = new DefaultParser();
         HelpFormatter helpFormatter = new HelpFormatter();
         CommandLine cl;
 
         try {
-            cl = parser.parse(options, args);
+            cl = parse(args);
         } catch (ParseException e) {
             System.out.println(e.getMessage());
             helpFormatter.printHelp("td-bisection OPTIONS", options);
@@ -28,18 +39,62 @@ public class App {
             return;
         }
 
+        if (cl.hasOption("batch")) {
+            runBatch(cl);
+            return;
+        }
+        if (cl.hasOption("server")) {
+            final int jobs = Integer.parseInt(cl.getOptionValue("jobs", "1"), 10);
+            final long memory = cl.hasOption("server-memory")
+                    ? Long.parseLong(cl.getOptionValue("server-memory"), 10) << 20
+                    : Runtime.getRuntime().maxMemory() / 4 * 3;
+            new Server(cl, jobs, memory).serve(Integer.parseInt(cl.getOptionValue("server"), 10));
+            return;
+        }
+        if (!cl.hasOption("graph")) {
+            System.out.println("Missing required option: g");
+            helpFormatter.printHelp("td-bisection OPTIONS", options);
+
+            System.exit(1);
+            return;
+        }
+
         Path graphFile = Paths.get(cl.getOptionValue("graph"));
-        Path tdFile = Paths.get(cl.getOptionValue("tree-decomposition"));
+        final int threads = Integer.parseInt(cl.getOptionValue("threads", "1"), 10);
+        final ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
 
         System.out.println("Graph: " + graphFile.getFileName());
-        System.out.println("Tree decomposition: " + tdFile.getFileName());
 
         final long time1 = System.currentTimeMillis();
+        final SolveMetrics metrics = cl.hasOption("metrics") || cl.hasOption("jfr") ? new SolveMetrics() : null;
+        if (metrics != null) {
+            metrics.jfr = cl.hasOption("jfr") && SolveMetrics.jfrSupported();
+            if (cl.hasOption("jfr") && !metrics.jfr) {
+                System.out.println("(!) Warning: this JVM does not support JFR events.");
+            }
+        }
+        long phaseStart = System.nanoTime();
 
         // read & parse input files
-        Graph graph = Graph.fromFile(graphFile);
-        TreeDecomposition td = TreeDecomposition.fromFile(tdFile);
-        td.graph = graph;
+        Graph graph = Graph.fromFile(graphFile, cl.hasOption("sparse"));
+        phaseStart = phase(metrics, "readGraph", phaseStart);
+        TreeDecomposition td;
+        if (cl.hasOption("tree-decomposition")) {
+            Path tdFile = Paths.get(cl.getOptionValue("tree-decomposition"));
+            System.out.println("Tree decomposition: " + tdFile.getFileName());
+            td = TreeDecomposition.fromFile(tdFile, Integer.parseInt(cl.getOptionValue("root", "1"), 10));
+            td.graph = graph;
+        } else {
+            final EliminationOrdering.Heuristic heuristic = heuristic(cl);
+            final int restarts = Integer.parseInt(cl.getOptionValue("restarts", "1"), 10);
+            System.out.println("Tree decomposition: " + heuristic.name().toLowerCase().replace('_', '-')
+                    + " (" + restarts + " runs)");
+            td = EliminationOrdering.decompose(graph, heuristic, restarts, 0, pool);
+        }
+        if (!cl.hasOption("root")) {
+            td.optimize();
+        }
+        phaseStart = phase(metrics, "decompose", phaseStart);
 
         // output graph & TD info
         System.out.println("Graph vertices: " + graph.vertices);
@@ -47,11 +102,18 @@ public class App {
 
         // create nice tree decomposition
         NiceTreeDecomposition ntd = td.normalize();
+        phase(metrics, "normalize", phaseStart);
         System.out.println(" TD #bags: " + td.countNodes());
         System.out.println("NTD #bags: " + ntd.numBags);
-
-        if (ntd.numBags > 4*graph.vertices) {
-            System.out.println("(!) Warning: NTD is not optimal.");
+        final Table.Precision precision = precision(cl, graph);
+        final CostModel cost = CostModel.of(ntd);
+        System.out.println("NTD cost: " + cost.tableEntries);
+        System.out.println("Estimated DP time: " + timeToString((long) (cost.estimateSeconds() * 1000)));
+        final MaxBisection.Schedule schedule = cl.hasOption("schedule") ? schedule(cl) : MaxBisection.Schedule.LAYERS;
+        System.out.println("Estimated peak table memory: "
+                + (CostModel.peakBytes(ntd, schedule, precision) >> 20) + "MB");
+        if (cl.hasOption("estimate")) {
+            return;
         }
 
         if (cl.hasOption("show")) {
@@ -62,15 +124,156 @@ public class App {
 
         // compute max bisection
         final long time2 = System.currentTimeMillis();
-        double bisection = MaxBisection.compute(ntd);
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.metrics = metrics;
+        mb.weightCache = weightCache(cl);
+        if (threads > 1) {
+            mb.pool = pool;
+            mb.schedule = MaxBisection.Schedule.SUBTREES;
+        }
+        configure(mb, cl, precision);
+        if (cl.hasOption("checkpoint")) {
+            mb.checkpoint = Paths.get(cl.getOptionValue("checkpoint"));
+            mb.checkpointInterval = (long) (Double.parseDouble(cl.getOptionValue("checkpoint-interval", "600")) * 1000);
+            mb.resume = cl.hasOption("resume");
+            if (!cl.hasOption("schedule")) {
+                mb.schedule = MaxBisection.Schedule.STREAM;
+            }
+            if (mb.resume && Files.exists(mb.checkpoint)) {
+                System.out.println("Resuming from " + mb.checkpoint);
+            }
+        }
+        double bisection;
+        if (cl.hasOption("partition")) {
+            mb.backPointerBudget = cl.hasOption("trace-budget")
+                    ? Long.parseLong(cl.getOptionValue("trace-budget"), 10) << 20
+                    : Runtime.getRuntime().maxMemory() / 4;
+            final Bisection partition = mb.solvePartition();
+            bisection = partition.size;
+            writePartition(Paths.get(cl.getOptionValue("partition")), partition);
+        } else {
+            bisection = mb.solve();
+        }
         final long time3 = System.currentTimeMillis();
+        if (cl.hasOption("metrics")) {
+            metrics.phase("solve", (time3 - time2) * 1_000_000);
+            Files.write(Paths.get(cl.getOptionValue("metrics")), metrics.toJson().getBytes(StandardCharsets.UTF_8));
+        }
 
-        System.out.println("Max Bisection size: " + bisection);
-        System.out.println("Max Bisection time: " + timeToString(time3 - time2));
+        final String name = mb.objective == MaxBisection.Objective.MAX ? "Max Bisection" : "Min Bisection";
+        System.out.println(name + " size: " + bisection);
+        System.out.println(name + " time: " + timeToString(time3 - time2));
+        System.out.println("Peak table memory: " + (mb.memory.peak() >> 20) + "MB");
         System.out.println("Total time: " + timeToString(time3 - time1));
     }
 
-    private static String timeToString(long time) {
+    /**
+     * Adds the time since start to the given phase (if metrics are collected) and returns the current time.
+     */
+    private static long phase(SolveMetrics metrics, String name, long start) {
+        final long now = System.nanoTime();
+        if (metrics != null) {
+            metrics.phase(name, now - start);
+        }
+        return now;
+    }
+
+    /**
+     * Solves the instances of --batch and writes one result per instance.
+     */
+    private static void runBatch(CommandLine cl) throws IOException {
+        final List<Batch.Instance> instances = Batch.instances(Paths.get(cl.getOptionValue("batch")));
+        final int jobs = Integer.parseInt(cl.getOptionValue("jobs", "1"), 10);
+        final long timeout = cl.hasOption("timeout")
+                ? (long) (Double.parseDouble(cl.getOptionValue("timeout")) * 1000)
+                : Long.MAX_VALUE;
+        final long memoryCap = cl.hasOption("instance-memory")
+                ? Long.parseLong(cl.getOptionValue("instance-memory"), 10) << 20
+                : Runtime.getRuntime().maxMemory() / jobs;
+        System.out.println("Batch: " + instances.size() + " instances, " + jobs + " jobs");
+
+        final List<Batch.Result> results;
+        try {
+            results = Batch.run(instances, cl, jobs, timeout, memoryCap);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (cl.hasOption("output")) {
+            Batch.write(results, Paths.get(cl.getOptionValue("output")));
+        } else {
+            Batch.writeCsv(results, new OutputStreamWriter(System.out));
+        }
+    }
+
+    static EliminationOrdering.Heuristic heuristic(CommandLine cl) {
+        return EliminationOrdering.Heuristic.valueOf(
+                cl.getOptionValue("heuristic", "min-fill").toUpperCase().replace('-', '_'));
+    }
+
+    static Table.Precision precision(CommandLine cl, Graph graph) {
+        final String precisionName = cl.getOptionValue("precision", "auto");
+        return precisionName.equals("auto")
+                ? Table.Precision.exactFor(graph)
+                : Table.Precision.valueOf(precisionName.toUpperCase());
+    }
+
+    /**
+     * Cache of --weight-cache MB, null if disabled.
+     */
+    static WeightCache weightCache(CommandLine cl) {
+        final long bytes = Long.parseLong(cl.getOptionValue("weight-cache", "64"), 10) << 20;
+        return bytes > 0 ? new WeightCache(bytes) : null;
+    }
+
+    /**
+     * Applies the DP options (precision, spilling, objective, imbalance and schedule).
+     */
+    static void configure(MaxBisection mb, CommandLine cl, Table.Precision precision) {
+        mb.allocator.precision = precision;
+        if (cl.hasOption("spill-dir")) {
+            final long maxMemory = Runtime.getRuntime().maxMemory();
+            mb.allocator.spillDirectory = Paths.get(cl.getOptionValue("spill-dir"));
+            mb.allocator.mapThreshold = maxMemory / 4;
+            mb.heapBudget = cl.hasOption("heap-budget")
+                    ? Long.parseLong(cl.getOptionValue("heap-budget"), 10) << 20
+                    : maxMemory / 2;
+        }
+        if (cl.hasOption("objective")) {
+            mb.objective = MaxBisection.Objective.valueOf(cl.getOptionValue("objective").toUpperCase());
+        }
+        mb.imbalance = Double.parseDouble(cl.getOptionValue("imbalance", "0"));
+        if (cl.hasOption("schedule")) {
+            mb.schedule = schedule(cl);
+        }
+    }
+
+    /**
+     * Schedule of --schedule, null if not given.
+     */
+    static MaxBisection.Schedule schedule(CommandLine cl) {
+        return cl.hasOption("schedule")
+                ? MaxBisection.Schedule.valueOf(cl.getOptionValue("schedule").toUpperCase().replace('-', '_'))
+                : null;
+    }
+
+    static CommandLine parse(String... args) throws ParseException {
+        return new DefaultParser().parse(options, args);
+    }
+
+    /**
+     * Writes one line "vertex side" per vertex, side is 0 or 1.
+     */
+    private static void writePartition(Path file, Bisection partition) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int v = 1; v < partition.side.length; v++) {
+                writer.write(v + " " + (partition.side[v] ? 1 : 0));
+                writer.newLine();
+            }
+        }
+    }
+
+    static String timeToString(long time) {
         if(Math.abs(time) >= 1000) {
             return (time/1000.0) + "s";
         } else {
@@ -82,15 +285,105 @@ public class App {
         options = new Options();
 
         Option input1 = new Option("g", "graph", true, "input graph file (.gr)");
-        Option input2 = new Option("td", "tree-decomposition", true, "input tree-decomposition file (.td)");
+        Option input2 = new Option("td", "tree-decomposition", true, "input tree-decomposition file (.td), computed by a heuristic if omitted");
+        Option heuristic = new Option(null, "heuristic", true, "elimination heuristic if no tree decomposition is given: min-degree or min-fill (default: min-fill)");
+        Option restarts = new Option(null, "restarts", true, "runs of the heuristic with random tie-breaking, the smallest width is used (default: 1)");
         Option show = new Option("s", "show", false, "display graph and decomposition");
+        Option root = new Option(null, "root", true, "index of the root bag of the tree decomposition (default: the root with the smallest cost)");
+        Option sparse = new Option(null, "sparse", false, "store the graph as a sparse adjacency structure (only the edges of the file can be reweighted)");
+        Option threads = new Option("t", "threads", true, "number of worker threads (default: 1)");
+        Option precision = new Option(null, "precision", true, "DP table values: auto, double, float, int or short (default: auto, the smallest exact one)");
+        Option spillDir = new Option(null, "spill-dir", true, "directory for memory-mapped DP tables");
+        Option heapBudget = new Option(null, "heap-budget", true, "heap MB for waiting DP tables before they are spilled (default: half the max heap)");
+        Option partition = new Option(null, "partition", true, "write the sides of a maximum bisection to this file");
+        Option traceBudget = new Option(null, "trace-budget", true, "MB for the back pointers of --partition, subtrees beyond are solved again (default: a quarter of the max heap)");
+        Option objective = new Option(null, "objective", true, "max or min (default: max)");
+        Option imbalance = new Option(null, "imbalance", true, "each side may have up to (1 + imbalance) * ceil(n/2) vertices (default: 0)");
+        Option estimate = new Option(null, "estimate", false, "only print the estimated cost of the decomposition");
+        Option server = new Option(null, "server", true, "keep running and answer requests on this local TCP port (see Server)");
+        Option serverMemory = new Option(null, "server-memory", true, "MB of estimated table memory of the concurrent solves of --server (default: 3/4 of the max heap)");
+        Option maxPayload = new Option(null, "max-payload", true, "MB of an upload to --server (default: 64)");
+        Option maxConnections = new Option(null, "max-connections", true, "clients served by --server at once (default: 16)");
+        Option dataDir = new Option(null, "data-dir", true, "directory of the FILE uploads to --server (default: FILE uploads are disabled)");
+        Option checkpoint = new Option(null, "checkpoint", true, "periodically write the pending DP tables to this file (uses the stream schedule)");
+        Option checkpointInterval = new Option(null, "checkpoint-interval", true, "seconds between checkpoints (default: 600)");
+        Option resume = new Option(null, "resume", false, "continue from the --checkpoint file if it exists");
+        Option weightCache = new Option(null, "weight-cache", true, "MB of cut-weight arrays reused between nodes with equal bags, shared by the instances of --batch (default: 64, 0 disables)");
+        Option metrics = new Option(null, "metrics", true, "write timings per node type, layer and phase, table memory and the slowest nodes as JSON to this file");
+        Option jfr = new Option(null, "jfr", false, "emit a JFR event per DP node (bisection.Node), recorded with -XX:StartFlightRecording");
+        Option batch = new Option(null, "batch", true, "solve every .gr file of a directory (with the .td file of the same name, if any) or every \"graph [td]\" line of a manifest");
+        Option jobs = new Option(null, "jobs", true, "instances of --batch or requests of --server solved concurrently (default: 1)");
+        Option timeout = new Option(null, "timeout", true, "seconds per instance of --batch (default: none)");
+        Option instanceMemory = new Option(null, "instance-memory", true, "MB of DP tables per instance of --batch, larger instances are skipped unless --spill-dir is given (default: max heap / jobs)");
+        Option output = new Option(null, "output", true, "results file of --batch, JSON if it ends with .json and CSV otherwise (default: CSV to stdout)");
+        Option schedule = new Option(null, "schedule", true, "evaluation order: layers, subtrees, post-order or stream (default: subtrees if threads > 1, layers otherwise)");
 
-        input1.setRequired(true);
-        input2.setRequired(true);
+        input1.setRequired(false);
+        input2.setRequired(false);
+        heuristic.setRequired(false);
+        restarts.setRequired(false);
         show.setRequired(false);
+        root.setRequired(false);
+        sparse.setRequired(false);
+        threads.setRequired(false);
+        precision.setRequired(false);
+        spillDir.setRequired(false);
+        heapBudget.setRequired(false);
+        schedule.setRequired(false);
+        estimate.setRequired(false);
+        objective.setRequired(false);
+        imbalance.setRequired(false);
+        partition.setRequired(false);
+        traceBudget.setRequired(false);
+        server.setRequired(false);
+        serverMemory.setRequired(false);
+        maxPayload.setRequired(false);
+        maxConnections.setRequired(false);
+        dataDir.setRequired(false);
+        checkpoint.setRequired(false);
+        checkpointInterval.setRequired(false);
+        resume.setRequired(false);
+        weightCache.setRequired(false);
+        metrics.setRequired(false);
+        jfr.setRequired(false);
+        batch.setRequired(false);
+        jobs.setRequired(false);
+        timeout.setRequired(false);
+        instanceMemory.setRequired(false);
+        output.setRequired(false);
 
         options.addOption(input1);
         options.addOption(input2);
+        options.addOption(heuristic);
+        options.addOption(restarts);
         options.addOption(show);
+        options.addOption(root);
+        options.addOption(sparse);
+        options.addOption(threads);
+        options.addOption(precision);
+        options.addOption(spillDir);
+        options.addOption(heapBudget);
+        options.addOption(schedule);
+        options.addOption(estimate);
+        options.addOption(objective);
+        options.addOption(imbalance);
+        options.addOption(partition);
+        options.addOption(traceBudget);
+        options.addOption(server);
+        options.addOption(serverMemory);
+        options.addOption(maxPayload);
+        options.addOption(maxConnections);
+        options.addOption(dataDir);
+        options.addOption(checkpoint);
+        options.addOption(checkpointInterval);
+        options.addOption(resume);
+        options.addOption(weightCache);
+        options.addOption(metrics);
+        options.addOption(jfr);
+        options.addOption(batch);
+        options.addOption(jobs);
+        options.addOption(timeout);
+        options.addOption(instanceMemory);
+        options.addOption(output);
     }
 }
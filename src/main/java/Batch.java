@@ -0,0 +1,352 @@
+import bisection.CostModel;
+import bisection.EliminationOrdering;
+import bisection.Graph;
+import bisection.MaxBisection;
+import bisection.NiceTreeDecomposition;
+import bisection.TreeDecomposition;
+import bisection.WeightCache;
+import org.apache.commons.cli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Solves many graph / tree decomposition pairs in one JVM (App --batch). The results have the columns of the
+ * benchmark script.
+ */
+class Batch {
+    static final String HEADER = "# filename, treewidth, vertices, # bags TD, # bags NTD, time, bisection size";
+
+    static final class Instance {
+        final String name;
+        final Path graph;
+        // null if the decomposition is computed by a heuristic
+        final Path td;
+
+        Instance(Path graph, Path td) {
+            this.graph = graph;
+            this.td = td;
+            this.name = graph.getFileName().toString().replaceFirst("\\.gr$", "").replace(',', '_');
+        }
+    }
+
+    static final class Result {
+        final String name;
+        // ok, timeout, memory or error
+        String status = "ok";
+        String message = "";
+        int treewidth;
+        int vertices;
+        int tdBags;
+        int ntdBags;
+        long time;
+        double size;
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Instances of a directory (every .gr file with the .td file of the same name, if present) or of a manifest
+     * file with one "graph [tree-decomposition]" per line, relative to the manifest. Lines starting with # are skipped.
+     */
+    static List<Instance> instances(Path input) throws IOException {
+        final List<Instance> instances = new ArrayList<>();
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> files = Files.list(input)) {
+                for (Path graph : files.filter(f -> f.toString().endsWith(".gr")).sorted().collect(Collectors.toList())) {
+                    final Path td = Paths.get(graph.toString().replaceFirst("\\.gr$", ".td"));
+                    instances.add(new Instance(graph, Files.exists(td) ? td : null));
+                }
+            }
+            return instances;
+        }
+
+        final Path dir = input.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(input)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] parts = line.split("\\s+");
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("Invalid manifest line \"" + line + "\"");
+            }
+            instances.add(new Instance(dir.resolve(parts[0]), parts.length > 1 ? dir.resolve(parts[1]) : null));
+        }
+        return instances;
+    }
+
+    /**
+     * Solves the instances on a pool of jobs threads. An instance is cancelled after timeoutMillis and skipped if
+     * its estimated peak table memory exceeds memoryCap bytes (unless tables may be spilled, see --spill-dir).
+     */
+    static List<Result> run(List<Instance> instances, CommandLine cl, int jobs, long timeoutMillis, long memoryCap)
+            throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final Graphs graphs = new Graphs(instances, cl.hasOption("sparse"));
+        // cut weights of graphs that are solved more than once are shared
+        final WeightCache cache = App.weightCache(cl);
+        try {
+            final List<Future<Result>> futures = new ArrayList<>(instances.size());
+            for (Instance instance : instances) {
+                futures.add(executor.submit(() -> run(instance, cl, timer, timeoutMillis, memoryCap, graphs, cache)));
+            }
+            final List<Result> results = new ArrayList<>(instances.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    final Result result = new Result(instances.get(i).name);
+                    result.status = "error";
+                    result.message = String.valueOf(e.getCause());
+                    results.add(result);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the graphs of the instances, a graph of several instances is loaded once and kept until its last use.
+     * Graphs are read outside of the lock, workers only wait for the graph they need.
+     */
+    static final class Graphs {
+        private final boolean sparse;
+        private final Map<Path, Integer> uses = new HashMap<>();
+        private final Map<Path, FutureTask<Graph>> loaded = new HashMap<>();
+
+        Graphs(List<Instance> instances, boolean sparse) {
+            this.sparse = sparse;
+            for (Instance instance : instances) {
+                uses.merge(instance.graph, 1, Integer::sum);
+            }
+        }
+
+        Graph acquire(Path file) throws IOException, InterruptedException {
+            final FutureTask<Graph> task;
+            final boolean owner;
+            synchronized (this) {
+                if (uses.get(file) == 1) {
+                    task = null;
+                    owner = false;
+                } else if (loaded.containsKey(file)) {
+                    task = loaded.get(file);
+                    owner = false;
+                } else {
+                    task = new FutureTask<>(() -> Graph.fromFile(file, sparse));
+                    loaded.put(file, task);
+                    owner = true;
+                }
+            }
+            if (task == null) {
+                return Graph.fromFile(file, sparse);
+            }
+            if (owner) {
+                task.run();
+            }
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                synchronized (this) {
+                    // the next instance of the file tries again
+                    loaded.remove(file, task);
+                }
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        synchronized void release(Path file) {
+            if (uses.merge(file, -1, Integer::sum) == 0) {
+                loaded.remove(file);
+            }
+        }
+    }
+
+    private static Result run(Instance instance, CommandLine cl, ScheduledExecutorService timer,
+                              long timeoutMillis, long memoryCap, Graphs graphs, WeightCache cache) {
+        final Result result = new Result(instance.name);
+        final AtomicBoolean timedOut = new AtomicBoolean(false);
+        final AtomicReference<MaxBisection> running = new AtomicReference<>();
+        // the worker is interrupted for the steps before the DP, until the instance is done
+        final Thread worker = Thread.currentThread();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final ScheduledFuture<?> timeout = timer.schedule(() -> {
+            synchronized (done) {
+                if (done.get()) {
+                    return;
+                }
+                timedOut.set(true);
+                worker.interrupt();
+            }
+            final MaxBisection mb = running.get();
+            if (mb != null) {
+                mb.cancel();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        try {
+            final Graph graph = graphs.acquire(instance.graph);
+            checkTimeout(timedOut);
+            final TreeDecomposition td;
+            if (instance.td != null) {
+                td = TreeDecomposition.fromFile(instance.td);
+                td.graph = graph;
+            } else {
+                td = EliminationOrdering.decompose(graph, App.heuristic(cl),
+                        Integer.parseInt(cl.getOptionValue("restarts", "1"), 10), 0, null);
+            }
+            checkTimeout(timedOut);
+            td.optimize();
+            checkTimeout(timedOut);
+            final NiceTreeDecomposition ntd = td.normalize();
+            checkTimeout(timedOut);
+            result.treewidth = td.width;
+            result.vertices = graph.vertices;
+            result.tdBags = td.countNodes();
+            result.ntdBags = ntd.numBags;
+
+            final MaxBisection mb = new MaxBisection(ntd);
+            App.configure(mb, cl, App.precision(cl, graph));
+            mb.weightCache = cache;
+            if (!cl.hasOption("schedule")) {
+                mb.schedule = MaxBisection.Schedule.POST_ORDER;
+            }
+            final long peak = CostModel.peakBytes(ntd, mb.schedule, mb.allocator.precision);
+            if (peak > memoryCap) {
+                if (mb.allocator.spillDirectory == null) {
+                    result.status = "memory";
+                    result.message = "estimated " + (peak >> 20) + "MB";
+                    return result;
+                }
+                mb.heapBudget = memoryCap;
+                mb.allocator.mapThreshold = memoryCap / 2;
+            }
+
+            running.set(mb);
+            if (timedOut.get()) {
+                mb.cancel();
+            }
+            final long start = System.currentTimeMillis();
+            result.size = mb.solve();
+            result.time = System.currentTimeMillis() - start;
+        } catch (CancellationException e) {
+            result.status = "timeout";
+        } catch (Exception e) {
+            result.status = timedOut.get() ? "timeout" : "error";
+            result.message = timedOut.get() ? "" : String.valueOf(e);
+        } finally {
+            timeout.cancel(false);
+            synchronized (done) {
+                done.set(true);
+                // an interrupt of the timer must not reach the next instance
+                Thread.interrupted();
+            }
+            graphs.release(instance.graph);
+        }
+        return result;
+    }
+
+    private static void checkTimeout(AtomicBoolean timedOut) {
+        if (timedOut.get()) {
+            throw new CancellationException("timeout");
+        }
+    }
+
+    /**
+     * Writes the solved instances like the benchmark script, other instances as comments.
+     */
+    static void writeCsv(List<Result> results, Writer out) {
+        final PrintWriter writer = new PrintWriter(out);
+        writer.println(HEADER);
+        for (Result r : results) {
+            final String row = r.name + ", " + r.treewidth + ", " + r.vertices + ", " + r.tdBags + ", " + r.ntdBags
+                    + ", " + App.timeToString(r.time) + ", " + r.size;
+            if (r.status.equals("ok")) {
+                writer.println(row);
+            } else {
+                writer.println("# " + r.status + ": (" + r.name + ")" + (r.message.isEmpty() ? "" : " " + r.message));
+            }
+        }
+        writer.flush();
+    }
+
+    static void writeJson(List<Result> results, Writer out) {
+        final PrintWriter writer = new PrintWriter(out);
+        writer.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            final Result r = results.get(i);
+            writer.print("  {\"filename\": " + quote(r.name) + ", \"status\": " + quote(r.status));
+            if (r.status.equals("ok")) {
+                writer.print(", \"treewidth\": " + r.treewidth + ", \"vertices\": " + r.vertices
+                        + ", \"tdBags\": " + r.tdBags + ", \"ntdBags\": " + r.ntdBags
+                        + ", \"timeMillis\": " + r.time + ", \"bisectionSize\": "
+                        + (Double.isFinite(r.size) ? String.valueOf(r.size) : "null"));
+            } else if (!r.message.isEmpty()) {
+                writer.print(", \"message\": " + quote(r.message));
+            }
+            writer.println(i + 1 < results.size() ? "}," : "}");
+        }
+        writer.println("]");
+        writer.flush();
+    }
+
+    private static String quote(String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static void write(List<Result> results, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            if (file.toString().endsWith(".json")) {
+                writeJson(results, writer);
+            } else {
+                writeCsv(results, writer);
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+import bisection.CostModel;
+import bisection.EliminationOrdering;
+import bisection.Graph;
+import bisection.MaxBisection;
+import bisection.NiceTreeDecomposition;
+import bisection.Table;
+import bisection.TreeDecomposition;
+import bisection.WeightCache;
+import org.apache.commons.cli.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resident solver (App --server). Keeps parsed graphs and decompositions between requests and answers one line
+ * per request on a loopback TCP socket. A request is one line, uploads are followed by the given number of bytes:
+ * <pre>
+ * GRAPH name bytes | GRAPH name FILE path    cache a graph (.gr), paths are relative to --data-dir
+ * TD name bytes | TD name FILE path          cache a tree decomposition (.td)
+ * SOLVE graph [td=name] [objective=max|min] [imbalance=x] [precision=p]
+ * DROP name                                  remove a cached graph or decomposition
+ * STATS
+ * QUIT
+ * </pre>
+ * Responses start with OK or ERROR. SOLVE answers "OK size=.. treewidth=.. waitMillis=.. prepareMillis=..
+ * solveMillis=.. peakBytes=..". Decompositions are prepared and solved on a pool of --jobs threads, solves are
+ * only started while the sum of their estimated peak table memory fits into the memory budget, others wait.
+ * Uploads are limited to --max-payload MB, FILE uploads need --data-dir and at most --max-connections clients
+ * are served at once. A connection is closed after an invalid upload header or a request line longer than
+ * MAX_LINE bytes. Graphs are stored sparse with --sparse or if their matrix does not fit into the memory budget.
+ */
+class Server {
+    static final int MAX_LINE = 4096;
+    // header of a .gr upload, checked before the graph is allocated
+    private static final Pattern GRAPH_HEADER = Pattern.compile("^p tw (\\d{1,10}) (\\d{1,10})\\s*$", Pattern.MULTILINE);
+
+    private final CommandLine cl;
+    private final ExecutorService solvers;
+    private final long memoryBudget;
+    // estimated bytes of the running solves
+    private long reserved = 0;
+    private final Object admission = new Object();
+    // cancelled on shutdown
+    private final Set<MaxBisection> running = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Graph> graphs = new ConcurrentHashMap<>();
+    private final Map<String, String> decompositions = new ConcurrentHashMap<>();
+    // normalized decompositions of (graph, td) pairs, td is empty for the heuristic. Guarded by itself together
+    // with the uploads, so a decomposition of replaced inputs is never stored
+    private final Map<String, NiceTreeDecomposition> prepared = new ConcurrentHashMap<>();
+    private final WeightCache cache;
+
+    private final long maxPayload;
+    // null if FILE uploads are disabled
+    private final Path dataDirectory;
+    private final Semaphore connections;
+
+    Server(CommandLine cl, int jobs, long memoryBudget) throws IOException {
+        this.cl = cl;
+        this.solvers = Executors.newFixedThreadPool(jobs);
+        this.memoryBudget = memoryBudget;
+        this.cache = App.weightCache(cl);
+        // uploads are read into one array
+        this.maxPayload = Math.min(Long.parseLong(cl.getOptionValue("max-payload", "64"), 10) << 20,
+                Integer.MAX_VALUE - 8);
+        this.dataDirectory = cl.hasOption("data-dir") ? Paths.get(cl.getOptionValue("data-dir")).toRealPath() : null;
+        this.connections = new Semaphore(Integer.parseInt(cl.getOptionValue("max-connections", "16"), 10));
+    }
+
+    /**
+     * Accepts connections until the process is stopped.
+     */
+    void serve(int port) throws IOException {
+        try (ServerSocket server = bind(port)) {
+            System.out.println("Listening on " + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort());
+            serve(server);
+        } finally {
+            shutdown();
+        }
+    }
+
+    static ServerSocket bind(int port) throws IOException {
+        return new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Accepts connections until the socket is closed, each connection is served by its own thread.
+     * Connections beyond the limit are answered with an error and closed.
+     */
+    void serve(ServerSocket server) throws IOException {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            if (!connections.tryAcquire()) {
+                try (Socket s = socket) {
+                    s.getOutputStream().write("ERROR too many connections\n".getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    // the client went away
+                }
+                continue;
+            }
+            final Thread thread = new Thread(() -> {
+                try {
+                    handle(socket);
+                } finally {
+                    connections.release();
+                }
+            }, "connection-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the solver threads: running solves are cancelled, decompositions in preparation are interrupted.
+     */
+    void shutdown() {
+        solvers.shutdownNow();
+        for (MaxBisection mb : running) {
+            mb.cancel();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = s.getOutputStream()) {
+            while (true) {
+                String response;
+                boolean close = false;
+                try {
+                    final String line = readLine(in);
+                    if (line == null || line.trim().equalsIgnoreCase("QUIT")) {
+                        break;
+                    }
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    response = execute(line.trim(), in);
+                } catch (ProtocolException e) {
+                    // the rest of the stream cannot be parsed
+                    response = error(e);
+                    close = true;
+                } catch (IOException e) {
+                    // the connection broke while reading an upload
+                    throw e;
+                } catch (Exception | OutOfMemoryError e) {
+                    // an allocation failure only fails this request
+                    response = error(e);
+                }
+                out.write((response.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (close) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    /**
+     * Error response of an exception, the message or the name of the exception if there is none.
+     */
+    static String error(Throwable e) {
+        final String message = e.getMessage();
+        return "ERROR " + (message == null || message.isEmpty() ? e.getClass().getSimpleName() : message);
+    }
+
+    String execute(String line, InputStream in) throws IOException, InterruptedException {
+        final String[] args = line.split("\\s+");
+        switch (args[0].toUpperCase()) {
+            case "GRAPH": {
+                checkArgs(args, 3, 4);
+                final Graph graph = parseGraph(payload(args, in));
+                synchronized (prepared) {
+                    graphs.put(args[1], graph);
+                    dropPrepared(args[1]);
+                }
+                return "OK";
+            }
+            case "TD": {
+                checkArgs(args, 3, 4);
+                final String td = payload(args, in);
+                // parse once to report errors on upload
+                TreeDecomposition.fromString(td);
+                synchronized (prepared) {
+                    decompositions.put(args[1], td);
+                    dropPrepared(args[1]);
+                }
+                return "OK";
+            }
+            case "DROP": {
+                checkArgs(args, 2, 2);
+                final boolean found;
+                synchronized (prepared) {
+                    found = graphs.remove(args[1]) != null | decompositions.remove(args[1]) != null;
+                    dropPrepared(args[1]);
+                }
+                return found ? "OK" : "ERROR unknown name " + args[1];
+            }
+            case "STATS":
+                synchronized (admission) {
+                    return "OK graphs=" + graphs.size() + " decompositions=" + decompositions.size()
+                            + " prepared=" + prepared.size() + " reservedBytes=" + reserved
+                            + " budgetBytes=" + memoryBudget;
+                }
+            case "SOLVE":
+                return solve(args);
+            default:
+                return "ERROR unknown command " + args[0];
+        }
+    }
+
+    private static void checkArgs(String[] args, int min, int max) {
+        if (args.length < min || args.length > max) {
+            throw new IllegalArgumentException("wrong number of arguments for " + args[0]);
+        }
+    }
+
+    /**
+     * Content of an upload: either FILE path (within the data directory) or the number of bytes that follow
+     * the request line. Throws a ProtocolException if the number of bytes is invalid.
+     */
+    private String payload(String[] args, InputStream in) throws IOException {
+        if (args[2].equalsIgnoreCase("FILE")) {
+            checkArgs(args, 4, 4);
+            final Path file = dataFile(args[3]);
+            try {
+                if (Files.size(file) > maxPayload) {
+                    throw new IllegalArgumentException(args[3] + " is larger than " + maxPayload + " bytes");
+                }
+                return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot read " + args[3]);
+            }
+        }
+        if (args.length != 3) {
+            throw new ProtocolException("wrong number of arguments for " + args[0]);
+        }
+        final long length;
+        try {
+            length = Long.parseLong(args[2], 10);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("invalid upload length " + args[2]);
+        }
+        if (length < 0 || length > maxPayload) {
+            throw new ProtocolException("upload length must be between 0 and " + maxPayload + " bytes");
+        }
+        final byte[] bytes = new byte[(int) length];
+        for (int read = 0; read < bytes.length; ) {
+            final int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses an uploaded graph. The header is checked first: a graph whose matrix does not fit into the memory
+     * budget is stored sparse, a graph that does not fit even then is rejected.
+     */
+    private Graph parseGraph(String content) {
+        boolean sparse = cl.hasOption("sparse");
+        final Matcher header = GRAPH_HEADER.matcher(content);
+        // other headers are reported by the parser
+        if (header.find()) {
+            final long n = Long.parseLong(header.group(1), 10);
+            final long m = Long.parseLong(header.group(2), 10);
+            if (!sparse && Graph.bytes(n, m, false) > memoryBudget) {
+                sparse = true;
+            }
+            if (Graph.bytes(n, m, true) > memoryBudget) {
+                throw new IllegalArgumentException("a graph with " + n + " vertices and " + m
+                        + " edges exceeds the memory budget of " + (memoryBudget >> 20) + "MB");
+            }
+        }
+        return Graph.fromString(content, sparse);
+    }
+
+    /**
+     * Path of a FILE upload, it has to be a file in the data directory.
+     */
+    private Path dataFile(String name) {
+        if (dataDirectory == null) {
+            throw new IllegalArgumentException("FILE uploads need --data-dir");
+        }
+        final Path file;
+        try {
+            file = dataDirectory.resolve(name).toRealPath();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + name);
+        }
+        if (!file.startsWith(dataDirectory) || !Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("cannot read " + name);
+        }
+        return file;
+    }
+
+    private void dropPrepared(String name) {
+        prepared.keySet().removeIf(key -> key.equals(name) || key.startsWith(name + "\0") || key.endsWith("\0" + name));
+    }
+
+    private String solve(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("SOLVE needs a graph");
+        }
+        final Graph graph = graphs.get(args[1]);
+        if (graph == null) {
+            return "ERROR unknown graph " + args[1];
+        }
+        String tdName = "";
+        MaxBisection.Objective objective = MaxBisection.Objective.MAX;
+        double imbalance = 0.0;
+        Table.Precision precision = Table.Precision.exactFor(graph);
+        for (int i = 2; i < args.length; i++) {
+            final String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("expected key=value, got " + args[i]);
+            }
+            switch (option[0]) {
+                case "td":
+                    tdName = option[1];
+                    break;
+                case "objective":
+                    objective = MaxBisection.Objective.valueOf(option[1].toUpperCase());
+                    break;
+                case "imbalance":
+                    imbalance = Double.parseDouble(option[1]);
+                    break;
+                case "precision":
+                    precision = Table.Precision.valueOf(option[1].toUpperCase());
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option[0]);
+            }
+        }
+
+        final long start = System.nanoTime();
+        final String td = tdName;
+        final NiceTreeDecomposition ntd;
+        try {
+            ntd = solvers.submit(() -> prepare(args[1], graph, td)).get();
+        } catch (ExecutionException e) {
+            return error(e.getCause());
+        }
+
+        final MaxBisection mb = new MaxBisection(ntd);
+        mb.schedule = MaxBisection.Schedule.POST_ORDER;
+        mb.allocator.precision = precision;
+        mb.objective = objective;
+        mb.imbalance = imbalance;
+        mb.weightCache = cache;
+        final long estimate = CostModel.of(ntd).peakBytes(precision);
+        if (estimate > memoryBudget) {
+            return "ERROR estimated " + (estimate >> 20) + "MB exceeds the memory budget of "
+                    + (memoryBudget >> 20) + "MB";
+        }
+        final long prepared = System.nanoTime();
+
+        synchronized (admission) {
+            while (reserved + estimate > memoryBudget) {
+                admission.wait();
+            }
+            reserved += estimate;
+        }
+        final long admitted = System.nanoTime();
+        running.add(mb);
+        try {
+            final Future<Double> size = solvers.submit(mb::solve);
+            final double result = size.get();
+            final long solved = System.nanoTime();
+            return "OK size=" + result + " treewidth=" + ntd.width
+                    + " waitMillis=" + (admitted - prepared) / 1_000_000
+                    + " prepareMillis=" + (prepared - start) / 1_000_000
+                    + " solveMillis=" + (solved - admitted) / 1_000_000
+                    + " peakBytes=" + mb.memory.peak();
+        } catch (ExecutionException e) {
+            return error(e.getCause());
+        } finally {
+            running.remove(mb);
+            synchronized (admission) {
+                reserved -= estimate;
+                admission.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Normalized decomposition of the graph, from the cached decomposition or the heuristic if tdName is empty.
+     * It is kept for later solves unless the graph or the decomposition was replaced meanwhile.
+     */
+    private NiceTreeDecomposition prepare(String graphName, Graph graph, String tdName) {
+        final String key = graphName + "\0" + tdName;
+        final NiceTreeDecomposition cached = prepared.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final TreeDecomposition td;
+        final String content = tdName.isEmpty() ? null : decompositions.get(tdName);
+        if (content == null) {
+            if (!tdName.isEmpty()) {
+                throw new IllegalArgumentException("unknown decomposition " + tdName);
+            }
+            td = EliminationOrdering.decompose(graph, App.heuristic(cl),
+                    Integer.parseInt(cl.getOptionValue("restarts", "1"), 10), 0, null);
+        } else {
+            td = TreeDecomposition.fromString(content);
+            td.graph = graph;
+        }
+        td.optimize();
+        final NiceTreeDecomposition ntd = td.normalize();
+        synchronized (prepared) {
+            if (graphs.get(graphName) == graph && (content == null || decompositions.get(tdName) == content)) {
+                prepared.putIfAbsent(key, ntd);
+            }
+        }
+        return ntd;
+    }
+
+    /**
+     * Reads a line terminated by \n, null at the end of the stream. Throws a ProtocolException if the line is longer
+     * than MAX_LINE bytes.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (line.size() == MAX_LINE) {
+                throw new ProtocolException("request line longer than " + MAX_LINE + " bytes");
+            }
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
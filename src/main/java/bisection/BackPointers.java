@@ -0,0 +1,140 @@
+package bisection;
+
+import static bisection.NiceTreeDecomposition.*;
+
+/**
+ * Argmax of every entry of a forget or join table, used to trace back an optimal bisection.
+ * Forget nodes store one bit per entry (the forgotten vertex is in S), join nodes store the
+ * number of forgotten vertices in S on the left side (l1) with as few bytes as the left child needs.
+ * Leaf and introduce nodes make no choice.
+ */
+abstract class BackPointers {
+    final int stride;
+
+    private BackPointers(int stride) {
+        this.stride = stride;
+    }
+
+    /**
+     * Bytes needed for the back pointers of a node, 0 if it makes no choice
+     * and -1 if its table is too large to be recorded.
+     */
+    static long bytes(NiceTreeNode node) {
+        final long entries = (long) node.numSubsets() * (node.numForgotten + 1);
+        if (node instanceof ForgetNode) {
+            return entries >= (long) Integer.MAX_VALUE << 6 ? -1 : ((entries + 63) >> 6) * Long.BYTES;
+        } else if (node instanceof JoinNode) {
+            return entries >= Integer.MAX_VALUE ? -1 : entries * bytesPerEntry((JoinNode) node);
+        }
+        return 0;
+    }
+
+    private static int bytesPerEntry(JoinNode node) {
+        final int values = node.leftChild.numForgotten + 1;
+        return values <= 1 << 8 ? 1 : values <= 1 << 16 ? 2 : 4;
+    }
+
+    static BackPointers allocate(NiceTreeNode node) {
+        assert (bytes(node) > 0);
+        final int stride = node.numForgotten + 1;
+        final long entries = (long) node.numSubsets() * stride;
+        if (node instanceof ForgetNode) {
+            return new Bits(stride, entries);
+        }
+        switch (bytesPerEntry((JoinNode) node)) {
+            case 1:
+                return new Bytes(stride, (int) entries);
+            case 2:
+                return new Shorts(stride, (int) entries);
+            default:
+                return new Ints(stride, (int) entries);
+        }
+    }
+
+    abstract int get(int s, int l);
+
+    abstract void set(int s, int l, int value);
+
+    private static final class Bits extends BackPointers {
+        private final long[] words;
+
+        Bits(int stride, long entries) {
+            super(stride);
+            words = new long[(int) ((entries + 63) >> 6)];
+        }
+
+        @Override
+        int get(int s, int l) {
+            final long i = (long) s * stride + l;
+            return (int) (words[(int) (i >> 6)] >>> i) & 1;
+        }
+
+        @Override
+        void set(int s, int l, int value) {
+            // blocks of subsets cover whole words, so concurrent blocks never share one
+            final long i = (long) s * stride + l;
+            if (value != 0) {
+                words[(int) (i >> 6)] |= 1L << i;
+            } else {
+                words[(int) (i >> 6)] &= ~(1L << i);
+            }
+        }
+    }
+
+    private static final class Bytes extends BackPointers {
+        private final byte[] values;
+
+        Bytes(int stride, int entries) {
+            super(stride);
+            values = new byte[entries];
+        }
+
+        @Override
+        int get(int s, int l) {
+            return values[s * stride + l] & 0xFF;
+        }
+
+        @Override
+        void set(int s, int l, int value) {
+            values[s * stride + l] = (byte) value;
+        }
+    }
+
+    private static final class Shorts extends BackPointers {
+        private final short[] values;
+
+        Shorts(int stride, int entries) {
+            super(stride);
+            values = new short[entries];
+        }
+
+        @Override
+        int get(int s, int l) {
+            return values[s * stride + l] & 0xFFFF;
+        }
+
+        @Override
+        void set(int s, int l, int value) {
+            values[s * stride + l] = (short) value;
+        }
+    }
+
+    private static final class Ints extends BackPointers {
+        private final int[] values;
+
+        Ints(int stride, int entries) {
+            super(stride);
+            values = new int[entries];
+        }
+
+        @Override
+        int get(int s, int l) {
+            return values[s * stride + l];
+        }
+
+        @Override
+        void set(int s, int l, int value) {
+            values[s * stride + l] = value;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package bisection;
+
+import java.util.stream.IntStream;
+
+/**
+ * A partition of the vertices into two sides, balanced up to the imbalance of the DP.
+ */
+public class Bisection {
+    /**
+     * Weight of the cut as computed by the DP.
+     */
+    public final double size;
+
+    /**
+     * side[v] is true if vertex v is in the first side (index 0 is unused).
+     */
+    public final boolean[] side;
+
+    Bisection(double size, boolean[] side) {
+        this.size = size;
+        this.side = side;
+    }
+
+    /**
+     * Vertices of the first (true) or second (false) side in ascending order.
+     */
+    public int[] vertices(boolean first) {
+        return IntStream.range(1, side.length).filter(v -> side[v] == first).toArray();
+    }
+
+    /**
+     * Total weight of the edges between both sides.
+     */
+    public double cutWeight(Graph graph) {
+        double weight = 0.0;
+        for (int u = 1; u <= graph.vertices; u++) {
+            for (int v : graph.neighbors(u)) {
+                if (u < v && side[u] != side[v]) {
+                    weight += graph.getEdgeWeight(u, v);
+                }
+            }
+        }
+        return weight;
+    }
+}
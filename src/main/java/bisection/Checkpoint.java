@@ -0,0 +1,227 @@
+package bisection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import static bisection.NiceTreeDecomposition.*;
+
+/**
+ * Binary checkpoint of a STREAM solve: the number of nodes evaluated in post-order and the tables that wait for
+ * their parent, with their post-order index. Values are stored in the precision of the tables.
+ * The signature identifies the decomposition, the weights and the options, a checkpoint is only resumed by
+ * a solve with the same signature.
+ */
+final class Checkpoint implements AutoCloseable {
+    private static final int MAGIC = 0x54444243;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    final long signature;
+    final int completed;
+    // post-order indices of the pending tables, bottom of the stack first
+    final int[] pending;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final Table.Precision precision;
+
+    private Checkpoint(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.limit(0);
+        if (readInt() != MAGIC || readInt() != VERSION) {
+            throw new IOException("not a checkpoint");
+        }
+        signature = readLong();
+        precision = Table.Precision.values()[readInt()];
+        completed = readInt();
+        pending = new int[readInt()];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = readInt();
+        }
+    }
+
+    /**
+     * Opens a checkpoint and reads its header, the tables follow with readTable.
+     */
+    static Checkpoint open(Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new Checkpoint(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next pending table, node has to be the node of its post-order index.
+     */
+    Table readTable(NiceTreeNode node, TableAllocator allocator) throws IOException {
+        if (allocator.precision != precision) {
+            throw new IllegalStateException("checkpoint has precision " + precision);
+        }
+        final int rows = readInt();
+        final int stride = readInt();
+        if (rows != node.numSubsets() || stride != node.numForgotten + 1) {
+            throw new IllegalStateException("checkpoint does not match node " + node);
+        }
+        final Table table = allocator.allocate(node);
+        final double[] row = new double[stride];
+        for (int s = 0; s < rows; s++) {
+            for (int l = 0; l < stride; l++) {
+                ensure(precision.bytes);
+                row[l] = getValue(buffer, precision);
+            }
+            table.setRow(s, row);
+        }
+        return table;
+    }
+
+    /**
+     * Writes a checkpoint to a temporary file that replaces the given file once it is complete,
+     * so a crash while writing keeps the previous checkpoint.
+     *
+     * @param indices post-order indices of the tables, bottom of the stack first
+     */
+    static void write(Path file, long signature, Table.Precision precision, int completed,
+                      Iterable<Integer> indices, Iterable<Table> tables, int count) throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(signature).putInt(precision.ordinal())
+                    .putInt(completed).putInt(count);
+            for (int index : indices) {
+                flushIfFull(channel, buffer, Integer.BYTES);
+                buffer.putInt(index);
+            }
+            for (Table table : tables) {
+                flushIfFull(channel, buffer, 2 * Integer.BYTES);
+                buffer.putInt(table.rows).putInt(table.stride);
+                final double[] row = new double[table.stride];
+                for (int s = 0; s < table.rows; s++) {
+                    table.getRow(s, row);
+                    for (double value : row) {
+                        flushIfFull(channel, buffer, precision.bytes);
+                        putValue(buffer, precision, value);
+                    }
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Hash of the nodes in post-order (type, bag and forgotten vertices), the edge weights and the options.
+     */
+    static long signature(NiceTreeDecomposition td, Graph weights, double imbalance, Table.Precision precision) {
+        long hash = 0xcbf29ce484222325L;
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(td.treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            hash = mix(hash, node.getClass().getSimpleName().hashCode());
+            hash = mix(hash, node.numForgotten);
+            for (int v : node.bag) {
+                hash = mix(hash, v);
+            }
+        }
+        for (int u = 1; u <= weights.vertices; u++) {
+            for (int v : weights.neighbors(u)) {
+                if (u < v) {
+                    hash = mix(mix(mix(hash, u), v), Double.doubleToLongBits(weights.getEdgeWeight(u, v)));
+                }
+            }
+        }
+        hash = mix(hash, Double.doubleToLongBits(imbalance));
+        return mix(hash, precision.ordinal());
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static void putValue(ByteBuffer buffer, Table.Precision precision, double value) {
+        final boolean infinite = value == Double.NEGATIVE_INFINITY;
+        switch (precision) {
+            case FLOAT:
+                buffer.putFloat((float) value);
+                break;
+            case INT:
+                buffer.putInt(infinite ? Integer.MIN_VALUE : (int) value);
+                break;
+            case SHORT:
+                buffer.putShort(infinite ? Short.MIN_VALUE : (short) value);
+                break;
+            default:
+                buffer.putDouble(value);
+        }
+    }
+
+    private static double getValue(ByteBuffer buffer, Table.Precision precision) {
+        switch (precision) {
+            case FLOAT:
+                return buffer.getFloat();
+            case INT: {
+                final int value = buffer.getInt();
+                return value == Integer.MIN_VALUE ? Double.NEGATIVE_INFINITY : value;
+            }
+            case SHORT: {
+                final short value = buffer.getShort();
+                return value == Short.MIN_VALUE ? Double.NEGATIVE_INFINITY : value;
+            }
+            default:
+                return buffer.getDouble();
+        }
+    }
+
+    // at least bytes readable bytes in the buffer
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("checkpoint is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private int readInt() throws IOException {
+        ensure(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    private long readLong() throws IOException {
+        ensure(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
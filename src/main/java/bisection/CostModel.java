@@ -0,0 +1,200 @@
+package bisection;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static bisection.NiceTreeDecomposition.*;
+
+/**
+ * Estimates the work of the DP by the total size of its tables,
+ * i.e. the sum of 2^|bag| * (numForgotten + 1) over all nodes.
+ * An instance predicts time and memory of a nice tree decomposition before it is solved.
+ */
+public class CostModel {
+    /**
+     * Time per operation of the single-threaded DP measured on random partial k-trees,
+     * {@link #estimateSeconds()} is within a factor of about two on those.
+     */
+    public static final double NANOS_PER_OPERATION = 3.0;
+
+    /**
+     * Sum of all table sizes.
+     */
+    public final double tableEntries;
+    /**
+     * Table entries and weight sums computed by the DP, joins counted as pairwise
+     * convolutions (upper bound, concave rows are merged in linear time).
+     */
+    public final double operations;
+    public final double largestTable;
+    /**
+     * Maximum number of table entries that are alive at the same time in the post-order schedule.
+     */
+    public final double peakEntries;
+
+    private CostModel(double tableEntries, double operations, double largestTable, double peakEntries) {
+        this.tableEntries = tableEntries;
+        this.operations = operations;
+        this.largestTable = largestTable;
+        this.peakEntries = peakEntries;
+    }
+
+    public static CostModel of(NiceTreeDecomposition ntd) {
+        double entries = 0.0, operations = 0.0, largest = 0.0;
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(ntd.treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            final double size = tableSize(node);
+            entries += size;
+            largest = Math.max(largest, size);
+            if (node instanceof JoinNode) {
+                final JoinNode join = (JoinNode) node;
+                operations += Math.scalb((join.leftChild.numForgotten + 1.0)
+                        * (join.rightChild.numForgotten + 1.0) + 1.0, node.size());
+            } else if (node instanceof IntroduceNode || node instanceof LeafNode) {
+                operations += size + node.numSubsets();
+            } else {
+                operations += size;
+            }
+        }
+
+        return new CostModel(entries, operations, largest, peakEntries(MaxBisection.postOrder(ntd).iterator()));
+    }
+
+    /**
+     * Maximum number of live table entries of the DP with the given schedule. Exact for POST_ORDER and STREAM,
+     * an upper bound for LAYERS (two adjacent layers) and SUBTREES (any order in which a node follows its children).
+     */
+    public static double peakEntries(NiceTreeDecomposition ntd, MaxBisection.Schedule schedule) {
+        switch (schedule) {
+            case POST_ORDER:
+                return peakEntries(MaxBisection.postOrder(ntd).iterator());
+            case STREAM:
+                return peakEntries(NiceTreeDecomposition.postOrder(ntd.treeRoot));
+            case LAYERS: {
+                double peak = 0.0, previous = 0.0;
+                final List<List<NiceTreeNode>> layers = ntd.layers();
+                for (int layer = layers.size() - 1; layer >= 0; layer--) {
+                    double current = 0.0;
+                    for (NiceTreeNode node : layers.get(layer)) {
+                        current += tableSize(node);
+                    }
+                    peak = Math.max(peak, previous + current);
+                    previous = current;
+                }
+                return peak;
+            }
+            default: {
+                // live tables are an antichain of computed nodes and nodes in progress with their children
+                final Map<NiceTreeNode, Double> bound = new HashMap<>(ntd.numBags);
+                final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(ntd.treeRoot);
+                while (nodes.hasNext()) {
+                    final NiceTreeNode node = nodes.next();
+                    double inProgress = tableSize(node), below = 0.0;
+                    for (NiceTreeNode child : node.children()) {
+                        inProgress += tableSize(child);
+                        below += bound.remove(child);
+                    }
+                    bound.put(node, Math.max(inProgress, below));
+                }
+                return bound.get(ntd.treeRoot);
+            }
+        }
+    }
+
+    public static long peakBytes(NiceTreeDecomposition ntd, MaxBisection.Schedule schedule,
+                                 Table.Precision precision) {
+        return (long) Math.min(Long.MAX_VALUE, peakEntries(ntd, schedule) * precision.bytes);
+    }
+
+    /**
+     * Peak of the live table entries if the nodes are evaluated in the given order
+     * (a table is allocated before the tables of its children are released).
+     */
+    private static double peakEntries(Iterator<NiceTreeNode> order) {
+        double live = 0.0, peak = 0.0;
+        while (order.hasNext()) {
+            final NiceTreeNode node = order.next();
+            live += tableSize(node);
+            peak = Math.max(peak, live);
+            for (NiceTreeNode child : node.children()) {
+                live -= tableSize(child);
+            }
+        }
+        return peak;
+    }
+
+    public double estimateSeconds() {
+        return operations * NANOS_PER_OPERATION / 1e9;
+    }
+
+    public long peakBytes(Table.Precision precision) {
+        return (long) Math.min(Long.MAX_VALUE, peakEntries * precision.bytes);
+    }
+
+    /**
+     * Number of entries of the table of a node.
+     */
+    public static double tableSize(int bagSize, long numForgotten) {
+        return Math.scalb((double) (numForgotten + 1), bagSize);
+    }
+
+    public static double tableSize(NiceTreeNode node) {
+        return tableSize(node.size(), node.numForgotten);
+    }
+
+    /**
+     * Total size of all tables of a nice tree decomposition.
+     */
+    public static double cost(NiceTreeDecomposition ntd) {
+        double cost = 0.0;
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(ntd.treeRoot);
+        while (nodes.hasNext()) {
+            cost += tableSize(nodes.next());
+        }
+        return cost;
+    }
+
+    /**
+     * Cost of the forget and introduce nodes that connect a node with bag size childSize and
+     * numForgotten forgotten vertices to its parent (forget first, then introduce).
+     *
+     * @param common number of vertices in both bags
+     */
+    static double bridgeCost(int childSize, int common, int parentSize, long numForgotten) {
+        double cost = 0.0;
+        for (int size = childSize - 1; size >= common; size--) {
+            numForgotten++;
+            cost += tableSize(size, numForgotten);
+        }
+        for (int size = common + 1; size <= parentSize; size++) {
+            cost += tableSize(size, numForgotten);
+        }
+        return cost;
+    }
+
+    /**
+     * Cost of the join nodes that combine branches with the given numbers of forgotten vertices.
+     * Joining the two branches with the fewest forgotten vertices first (Huffman) is optimal,
+     * since every join costs 2^|bag| * (sum of the forgotten vertices of both sides + 1).
+     */
+    static double joinCost(int bagSize, long[] branches, int numBranches) {
+        if (numBranches < 2) {
+            return 0.0;
+        }
+        final PriorityQueue<Long> queue = new PriorityQueue<>(numBranches);
+        for (int i = 0; i < numBranches; i++) {
+            queue.add(branches[i]);
+        }
+        double cost = 0.0;
+        while (queue.size() > 1) {
+            final long joined = queue.poll() + queue.poll();
+            cost += tableSize(bagSize, joined);
+            queue.add(joined);
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,275 @@
+package bisection;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static bisection.TreeDecomposition.TreeNode;
+
+/**
+ * Greedy elimination orderings and the tree decompositions they induce.
+ * Eliminating a vertex connects its remaining neighbors to a clique, the vertex together
+ * with these neighbors forms a bag.
+ */
+public class EliminationOrdering {
+
+    public enum Heuristic {
+        /**
+         * eliminate a vertex of minimum degree
+         */
+        MIN_DEGREE,
+        /**
+         * eliminate a vertex whose elimination adds the fewest edges
+         */
+        MIN_FILL
+    }
+
+    /**
+     * Runs the heuristic restarts times and returns the decomposition of smallest width.
+     * The first run breaks ties by vertex index, the others break ties randomly.
+     * Throws a CancellationException if the calling thread is interrupted (runs in the pool are not).
+     *
+     * @param pool runs the restarts in parallel, may be null
+     */
+    public static TreeDecomposition decompose(Graph graph, Heuristic heuristic, int restarts, long seed, ForkJoinPool pool) {
+        if (restarts < 1) {
+            throw new IllegalArgumentException("restarts must be > 0");
+        }
+        final TreeDecomposition[] results = new TreeDecomposition[restarts];
+        final IntConsumer restart = i -> results[i] =
+                decompose(graph, order(graph, heuristic, i == 0 ? null : new Random(seed + i)));
+        if (pool == null) {
+            IntStream.range(0, restarts).forEach(restart);
+        } else {
+            pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, restarts).parallel().forEach(restart)));
+        }
+
+        TreeDecomposition best = results[0];
+        for (TreeDecomposition td : results) {
+            if (td.width < best.width) {
+                best = td;
+            }
+        }
+        return best;
+    }
+
+    public static TreeDecomposition decompose(Graph graph, Heuristic heuristic) {
+        return decompose(graph, order(graph, heuristic, null));
+    }
+
+    /**
+     * Computes an elimination ordering greedily.
+     *
+     * @param random breaks ties between vertices of equal score, by index if null
+     * @return the vertices in the order of elimination
+     */
+    public static int[] order(Graph graph, Heuristic heuristic, Random random) {
+        final int n = graph.vertices;
+        final int[][] adjacent = new int[n + 1][];
+        for (int v = 1; v <= n; v++) {
+            adjacent[v] = graph.neighbors(v);
+        }
+
+        // tie-breaking rank of each vertex
+        final int[] vertexOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            vertexOf[i] = i + 1;
+        }
+        if (random != null) {
+            for (int i = n - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final int t = vertexOf[i];
+                vertexOf[i] = vertexOf[j];
+                vertexOf[j] = t;
+            }
+        }
+        final int[] rank = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            rank[vertexOf[i]] = i;
+        }
+
+        // lazy priority queue of (score, rank), outdated entries are skipped
+        final long[] score = new long[n + 1];
+        final int[] mark = new int[n + 1];
+        int stamp = 0;
+        final PriorityQueue<Long> queue = new PriorityQueue<>(n);
+        for (int v = 1; v <= n; v++) {
+            score[v] = heuristic == Heuristic.MIN_DEGREE ? adjacent[v].length : fill(adjacent, v, mark, ++stamp);
+            queue.add(score[v] << 32 | rank[v]);
+        }
+
+        final boolean[] eliminated = new boolean[n + 1];
+        final int[] order = new int[n];
+        for (int k = 0; k < n; k++) {
+            TreeDecomposition.checkInterrupted();
+            int v;
+            long entry;
+            do {
+                entry = queue.poll();
+                v = vertexOf[(int) entry];
+            } while (eliminated[v] || (entry >>> 32) != score[v]);
+            eliminated[v] = true;
+            order[k] = v;
+
+            final int[] neighbors = adjacent[v];
+            if (heuristic == Heuristic.MIN_FILL) {
+                // every new edge {x,y} lowers the fill of the common neighbors of x and y
+                for (int i = 0; i < neighbors.length; i++) {
+                    final int x = neighbors[i];
+                    for (int j = i + 1; j < neighbors.length; j++) {
+                        final int y = neighbors[j];
+                        if (Arrays.binarySearch(adjacent[x], y) < 0) {
+                            lowerCommonNeighbors(adjacent[x], adjacent[y], v, score, rank, queue);
+                        }
+                    }
+                }
+            }
+
+            // make the neighbors a clique
+            for (int u : neighbors) {
+                adjacent[u] = unionWithout(adjacent[u], neighbors, u, v);
+            }
+            adjacent[v] = null;
+
+            // the neighborhoods of the neighbors changed
+            for (int u : neighbors) {
+                score[u] = heuristic == Heuristic.MIN_DEGREE ? adjacent[u].length : fill(adjacent, u, mark, ++stamp);
+                queue.add(score[u] << 32 | rank[u]);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Number of missing edges between the neighbors of v.
+     *
+     * @param stamp a value that was not used for mark before
+     */
+    private static long fill(int[][] adjacent, int v, int[] mark, int stamp) {
+        final int[] neighbors = adjacent[v];
+        for (int u : neighbors) {
+            mark[u] = stamp;
+        }
+        // each edge between two neighbors is counted twice
+        long edges = 0;
+        for (int u : neighbors) {
+            for (int w : adjacent[u]) {
+                if (mark[w] == stamp) {
+                    edges++;
+                }
+            }
+        }
+        final long d = neighbors.length;
+        return Math.min((d * (d - 1) - edges) / 2, Integer.MAX_VALUE);
+    }
+
+    private static void lowerCommonNeighbors(int[] a, int[] b, int v, long[] score, int[] rank,
+                                             PriorityQueue<Long> queue) {
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                final int w = a[i];
+                if (w != v) {
+                    score[w]--;
+                    queue.add(score[w] << 32 | rank[w]);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Sorted union of a and b without the elements x and y.
+     */
+    private static int[] unionWithout(int[] a, int[] b, int x, int y) {
+        final int[] result = new int[a.length + b.length];
+        int size = 0, i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+            final int v;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                v = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                v = b[j++];
+            } else {
+                v = a[i++];
+                j++;
+            }
+            if (v != x && v != y) {
+                result[size++] = v;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Builds the tree decomposition of an elimination ordering. The bag of a vertex contains the vertex and its
+     * neighbors at the time of its elimination, its parent is the bag of the neighbor that is eliminated first.
+     */
+    public static TreeDecomposition decompose(Graph graph, int[] order) {
+        final int n = graph.vertices;
+        if (order.length != n) {
+            throw new IllegalArgumentException("order must contain every vertex once");
+        }
+        final int[] position = new int[n + 1];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < n; i++) {
+            graph.checkVertex(order[i]);
+            if (position[order[i]] >= 0) {
+                throw new IllegalArgumentException("order must contain every vertex once");
+            }
+            position[order[i]] = i;
+        }
+
+        final int[][] adjacent = new int[n + 1][];
+        for (int v = 1; v <= n; v++) {
+            adjacent[v] = graph.neighbors(v);
+        }
+
+        final TreeNode[] nodes = new TreeNode[n];
+        final int[] parent = new int[n];
+        int width = 0;
+        for (int k = 0; k < n; k++) {
+            TreeDecomposition.checkInterrupted();
+            final int v = order[k];
+            final int[] neighbors = adjacent[v];
+            for (int u : neighbors) {
+                adjacent[u] = unionWithout(adjacent[u], neighbors, u, v);
+            }
+            adjacent[v] = null;
+
+            final TreeNode node = new TreeNode();
+            node.bag = Arrays.copyOf(neighbors, neighbors.length + 1);
+            node.bag[neighbors.length] = v;
+            Arrays.sort(node.bag);
+            nodes[k] = node;
+            width = Math.max(width, neighbors.length);
+
+            parent[k] = -1;
+            for (int u : neighbors) {
+                if (parent[k] < 0 || position[u] < parent[k]) {
+                    parent[k] = position[u];
+                }
+            }
+        }
+
+        // the last vertex is the root, other components are attached to it
+        final TreeNode root = nodes[n - 1];
+        for (int k = 0; k < n - 1; k++) {
+            (parent[k] < 0 ? root : nodes[parent[k]]).childNodes.add(nodes[k]);
+        }
+
+        TreeDecomposition td = new TreeDecomposition();
+        td.graph = graph;
+        td.width = width;
+        td.root = root;
+        return td;
+    }
+}
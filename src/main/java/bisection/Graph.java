@@ -1,71 +1,139 @@
 package bisection;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Graph {
     public final int vertices;
     private final double[][] edgeWeights;
-    private static final Pattern NEWLINE = Pattern.compile("\n");
+
+    /**
+     * Notified after the weight of an edge was set.
+     */
+    public interface EdgeListener {
+        void edgeWeightChanged(int u, int v);
+    }
+
+    private final List<EdgeListener> listeners = new CopyOnWriteArrayList<>();
+    // incremented whenever an edge weight is set
+    private final AtomicLong version = new AtomicLong();
 
     public Graph(int numVertices) {
+        this(numVertices, true);
+    }
+
+    Graph(int numVertices, boolean dense) {
         if (numVertices < 2) {
             throw new IllegalArgumentException("numVertices should be > 1");
         }
         this.vertices = numVertices;
-        this.edgeWeights = new double[numVertices - 1][];
-        for (int u = 0; u < numVertices - 1; u++) {
-            this.edgeWeights[u] = new double[numVertices - u - 1];
+        if (dense) {
+            this.edgeWeights = new double[numVertices - 1][];
+            for (int u = 0; u < numVertices - 1; u++) {
+                this.edgeWeights[u] = new double[numVertices - u - 1];
+            }
+        } else {
+            this.edgeWeights = null;
         }
     }
 
     public static Graph fromString(String grStr) {
-        Stream<String> lines = NEWLINE.splitAsStream(grStr);
-        return fromLines(lines);
+        return fromString(grStr, false);
+    }
+
+    /**
+     * Reads a graph in the PACE format from a string, a SparseGraph if sparse is set (see fromFile).
+     */
+    public static Graph fromString(String grStr, boolean sparse) {
+        try (PaceReader reader = PaceReader.of(grStr)) {
+            return read(reader, sparse);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static Graph fromFile(Path file) throws IOException {
-        try (Stream<String> lineStream = Files.lines(file, Charset.defaultCharset())) {
-            return fromLines(lineStream);
+        return fromFile(file, false);
+    }
+
+    /**
+     * Reads a graph in the PACE format. If sparse is set, a SparseGraph is returned. Its edge set is fixed,
+     * so setEdgeWeight only accepts edges of the file.
+     */
+    public static Graph fromFile(Path file, boolean sparse) throws IOException {
+        try (PaceReader reader = PaceReader.open(file)) {
+            return read(reader, sparse);
         }
     }
 
-    private static Graph fromLines(Stream<String> lineStream) {
-        Iterator<String> lines = lineStream.filter(line -> !line.startsWith("c")).iterator();
-        String firstLine = lines.next();
-        String[] parts = firstLine.split("\\s+");
-        if (!firstLine.startsWith("p tw ") || parts.length != 4) {
+    private static Graph read(PaceReader reader, boolean sparse) throws IOException {
+        if (!reader.nextLine()) {
+            throw new NoSuchElementException();
+        }
+        if (!reader.startsWith("p tw ") || reader.numTokens() != 4) {
             throw new IllegalArgumentException("Invalid graph file");
         }
-        final int n = Integer.parseInt(parts[2], 10);
-        final int numEdges = Integer.parseInt(parts[3], 10);
-        Graph graph = new Graph(n);
+        final int n = reader.intToken(2);
+        final int numEdges = reader.intToken(3);
+        // every edge takes at least 4 bytes ("u v\n"), more edges cannot be in the input
+        if (numEdges < 0 || numEdges > (reader.size() + 1) / 4) {
+            throw new IllegalArgumentException("Invalid number of edges " + numEdges);
+        }
+        final int[] from = new int[numEdges];
+        final int[] to = new int[numEdges];
 
         for (int i = 0; i < numEdges; i++) {
-            String edgeLine = lines.next();
-            parts = edgeLine.split("\\s+");
-            if (parts.length != 2) {
-                throw new IllegalArgumentException("Invalid edge \"" + edgeLine + "\"");
+            if (!reader.nextLine()) {
+                throw new NoSuchElementException();
             }
-            final int start = Integer.parseInt(parts[0], 10);
-            final int end = Integer.parseInt(parts[1], 10);
-            assert (start < n);
-            assert (0 < start && end <= n);
+            if (reader.numTokens() != 2) {
+                throw new IllegalArgumentException("Invalid edge \"" + reader.lineString() + "\"");
+            }
+            from[i] = reader.intToken(0);
+            to[i] = reader.intToken(1);
+            assert (from[i] < n);
+            assert (0 < from[i] && to[i] <= n);
+        }
 
-            graph.setEdgeWeight(start, end, 1.0);
+        assert !reader.nextLine();
+
+        return fromEdges(n, from, to, sparse);
+    }
+
+    /**
+     * Approximate heap bytes needed to read a graph with n vertices and m edges, dense or sparse.
+     * Includes the edge arrays of the reader.
+     */
+    public static double bytes(long n, long m, boolean sparse) {
+        // from and to
+        final double edges = 8.0 * m;
+        if (sparse) {
+            // rows (start, degree, next) and 2m columns and weights
+            return edges + 12.0 * n + 24.0 * m;
         }
+        // n (n - 1) / 2 weights and the row headers
+        return edges + 4.0 * n * (n - 1) + 16.0 * n;
+    }
 
-        assert !lines.hasNext();
+    static Graph fromEdges(int n, int[] from, int[] to, boolean sparse) {
+        if (sparse) {
+            return new SparseGraph(n, from, to);
+        }
 
+        Graph graph = new Graph(n);
+        for (int i = 0; i < from.length; i++) {
+            graph.setEdgeWeight(from[i], to[i], 1.0);
+        }
         return graph;
     }
 
-    public void setEdgeWeight(int u, int v, double weight) {
+    void checkEdge(int u, int v) {
         if (u <= 0 || u > vertices) {
             throw new IllegalArgumentException("invalid index u: " + u);
         }
@@ -75,6 +143,10 @@ public class Graph {
         if (u == v) {
             throw new IllegalArgumentException("self-loops are not supported");
         }
+    }
+
+    public void setEdgeWeight(int u, int v, double weight) {
+        checkEdge(u, v);
 
         int i = Math.min(u, v) - 1;
         int j = Math.max(u, v) - i - 2;
@@ -82,6 +154,31 @@ public class Graph {
         assert (j >= 0);
 
         edgeWeights[i][j] = weight;
+        notifyListeners(u, v);
+    }
+
+    public void addEdgeListener(EdgeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeEdgeListener(EdgeListener listener) {
+        listeners.remove(listener);
+    }
+
+    void notifyListeners(int u, int v) {
+        version.incrementAndGet();
+        if (!listeners.isEmpty()) {
+            for (EdgeListener listener : listeners) {
+                listener.edgeWeightChanged(u, v);
+            }
+        }
+    }
+
+    /**
+     * Number of edge weight changes so far, results derived from the weights are valid while it is unchanged.
+     */
+    long version() {
+        return version.get();
     }
 
     public void addEdge(int u, int v) {
@@ -94,6 +191,57 @@ public class Graph {
         return edgeWeights[u - 1][v - u - 1];
     }
 
+    /**
+     * Sum of the absolute values of all edge weights.
+     */
+    public double absoluteWeight() {
+        double sum = 0.0;
+        for (double[] row : edgeWeights) {
+            for (double w : row) {
+                sum += Math.abs(w);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * True if every edge weight is an integer.
+     */
+    public boolean hasIntegerWeights() {
+        for (double[] row : edgeWeights) {
+            for (double w : row) {
+                if (w != Math.rint(w)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Vertices joined to v by an edge of non-zero weight, in ascending order.
+     */
+    public int[] neighbors(int v) {
+        checkVertex(v);
+        int[] neighbors = new int[16];
+        int size = 0;
+        for (int u = 1; u <= vertices; u++) {
+            if (u != v && getEdgeWeightSafe(u, v) != 0.0) {
+                if (size == neighbors.length) {
+                    neighbors = Arrays.copyOf(neighbors, 2 * size);
+                }
+                neighbors[size++] = u;
+            }
+        }
+        return Arrays.copyOf(neighbors, size);
+    }
+
+    void checkVertex(int v) {
+        if (v <= 0 || v > vertices) {
+            throw new IllegalArgumentException("invalid vertex: " + v);
+        }
+    }
+
     public double getEdgeWeightSafe(int u, int v) {
         if (u == v) {
             System.out.println("Warning: u=v=" + u);
@@ -0,0 +1,135 @@
+package bisection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Table stored in a memory-mapped temporary file, so it does not count against the heap.
+ * Values are stored in the given precision with the encoding of the heap tables.
+ * The file is split into segments of at most 2^27 values (1 GB for doubles) that are mapped separately.
+ */
+public class MappedTable extends Table {
+    private static final int SEGMENT_BITS = 27;
+
+    private final Path file;
+    private final Precision precision;
+    private final ByteBuffer[] segments;
+    private final int segmentBits;
+    private final int segmentMask;
+
+    MappedTable(Path directory, int rows, int stride, Precision precision) {
+        super(rows, stride);
+        this.precision = precision;
+        this.segmentBits = chunkBits(rows, stride, SEGMENT_BITS);
+        this.segmentMask = (1 << segmentBits) - 1;
+        this.segments = new ByteBuffer[rows >>> segmentBits];
+
+        final long segmentBytes = ((long) stride << segmentBits) * precision.bytes;
+        try {
+            this.file = Files.createTempFile(directory, "table", ".bin");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < segments.length; i++) {
+                    segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, segmentBytes)
+                            .order(ByteOrder.nativeOrder());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public double get(int s, int l) {
+        return read(segments[s >>> segmentBits], (s & segmentMask) * stride + l);
+    }
+
+    @Override
+    void getRow(int s, double[] row) {
+        final ByteBuffer segment = segments[s >>> segmentBits];
+        final int offset = (s & segmentMask) * stride;
+        for (int l = 0; l < stride; l++) {
+            row[l] = read(segment, offset + l);
+        }
+    }
+
+    @Override
+    void setRow(int s, double[] row) {
+        final ByteBuffer segment = segments[s >>> segmentBits];
+        final int offset = (s & segmentMask) * stride;
+        for (int l = 0; l < stride; l++) {
+            write(segment, offset + l, row[l]);
+        }
+    }
+
+    private double read(ByteBuffer segment, int index) {
+        switch (precision) {
+            case FLOAT:
+                return segment.getFloat(index * Float.BYTES);
+            case INT: {
+                final int v = segment.getInt(index * Integer.BYTES);
+                return v == Integer.MIN_VALUE ? Double.NEGATIVE_INFINITY : v;
+            }
+            case SHORT: {
+                final short v = segment.getShort(index * Short.BYTES);
+                return v == Short.MIN_VALUE ? Double.NEGATIVE_INFINITY : v;
+            }
+            default:
+                return segment.getDouble(index * Double.BYTES);
+        }
+    }
+
+    private void write(ByteBuffer segment, int index, double v) {
+        switch (precision) {
+            case FLOAT:
+                segment.putFloat(index * Float.BYTES, (float) v);
+                break;
+            case INT:
+                if (v == Double.NEGATIVE_INFINITY) {
+                    segment.putInt(index * Integer.BYTES, Integer.MIN_VALUE);
+                } else if (v > Integer.MIN_VALUE && v == (int) v) {
+                    segment.putInt(index * Integer.BYTES, (int) v);
+                } else {
+                    throw new ArithmeticException(v + " is not exact in INT precision");
+                }
+                break;
+            case SHORT:
+                if (v == Double.NEGATIVE_INFINITY) {
+                    segment.putShort(index * Short.BYTES, Short.MIN_VALUE);
+                } else if (v > Short.MIN_VALUE && v == (short) v) {
+                    segment.putShort(index * Short.BYTES, (short) v);
+                } else {
+                    throw new ArithmeticException(v + " is not exact in SHORT precision");
+                }
+                break;
+            default:
+                segment.putDouble(index * Double.BYTES, v);
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return (long) rows * stride * precision.bytes;
+    }
+
+    @Override
+    public long heapBytes() {
+        return 0;
+    }
+
+    /**
+     * Deletes the backing file. The mapping itself is released once the table is garbage collected.
+     */
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+}
@@ -1,185 +1,1266 @@
 package bisection;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import static bisection.NiceTreeDecomposition.*;
 
 public class MaxBisection {
+    // subsets of a node are split into blocks of 2^BLOCK_BITS for parallel evaluation
+    static final int BLOCK_BITS = 12;
+
+    public final NiceTreeDecomposition td;
+
+    /**
+     * Pool used to evaluate nodes concurrently, null for sequential evaluation.
+     */
+    public ForkJoinPool pool = null;
+
+    /**
+     * Order in which the nodes are evaluated.
+     */
+    public Schedule schedule = Schedule.LAYERS;
+
+    /**
+     * Memory of the live DP tables during the last solve.
+     */
+    public final TableMemory memory = new TableMemory();
+
+    /**
+     * Creates the DP tables and reuses the memory of released ones.
+     */
+    public TableAllocator allocator = new TableAllocator();
+
+    /**
+     * If the live heap tables exceed this many bytes, tables that wait for the sibling
+     * subtree of a join are moved to memory-mapped files (requires allocator.spillDirectory).
+     * Used by the SUBTREES and POST_ORDER schedules.
+     */
+    public long heapBudget = Long.MAX_VALUE;
+
+    /**
+     * Bytes for the back pointers of solvePartition. Nodes near the root are recorded first, the subtrees
+     * below the recorded nodes are solved again during the traceback (each with the same budget).
+     */
+    public long backPointerBudget = Long.MAX_VALUE;
+
+    /**
+     * Whether the weight of the cut is maximized or minimized.
+     */
+    public Objective objective = Objective.MAX;
+
+    /**
+     * Allowed imbalance eps: of the n vertices in the decomposition, each side gets at most (1 + eps) * ceil(n/2).
+     */
+    public double imbalance = 0.0;
+
+    public enum Objective {
+        MAX,
+        // maximizes the cut of the negated weights
+        MIN
+    }
+
+    /**
+     * Keeps the tables of all nodes between solves. Edge weights that are set on the graph afterwards
+     * mark the nodes depending on them, the next solve recomputes only these and their ancestors.
+     * If the new weights are not exact in an INT or SHORT allocator precision, the precision is widened
+     * and all nodes are recomputed. Call clear() to release the tables.
+     */
+    public boolean incremental = false;
+
+    /**
+     * Collects node timings and table memory of the solves if not null.
+     */
+    public SolveMetrics metrics = null;
+
+    /**
+     * Cut-weight arrays of equal bags are computed once if not null, the cache may be shared with other solves.
+     */
+    public WeightCache weightCache = null;
+
+    /**
+     * Checkpoint file of the STREAM schedule, none if null. The pending tables are written every
+     * checkpointInterval milliseconds and the file is deleted after the solve.
+     */
+    public Path checkpoint = null;
+
+    public long checkpointInterval = 10 * 60 * 1000;
+
+    /**
+     * Continues from an existing checkpoint. It has to be written for the same decomposition, weights,
+     * imbalance and precision, otherwise solve throws an IllegalStateException.
+     */
+    public boolean resume = false;
+
+    // graph whose weights are maximized, negated for MIN
+    private Graph weights;
+
+    private volatile boolean cancelled = false;
+
+    // incremental mode: tables of all nodes, nodes to recompute & nodes depending on the edges at a vertex
+    private Map<NiceTreeNode, Table> kept = null;
+    private final Set<NiceTreeNode> dirty = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private Objective keptObjective;
+    private Map<NiceTreeNode, NiceTreeNode> parentOf;
+    private Map<NiceTreeNode, Integer> position;
+    private List<List<NiceTreeNode>> dependents;
+    private final Graph.EdgeListener edgeListener = this::edgeWeightChanged;
+    // nodes computed by the last solve
+    int recomputed = 0;
+
+    // nodes whose back pointers are recorded during solve, null if none
+    private Set<NiceTreeNode> recorded = null;
+    private final Map<NiceTreeNode, BackPointers> pointers = new ConcurrentHashMap<>();
+    // best root entry (S << 32 | l) of the last solve, -1 if none
+    private long rootEntry = -1;
+    // best cut for every size of the first side of the last solve
+    private double[] profile;
+
+    public enum Schedule {
+        // evaluate one layer after the other, nodes of a layer concurrently
+        LAYERS,
+        // evaluate a node as soon as all of its children are done (POST_ORDER without a pool)
+        SUBTREES,
+        // evaluate one node after the other in a post-order that minimizes the number of live tables
+        POST_ORDER,
+        // evaluate the nodes in the order of a lazy post-order iterator, only tables of pending join branches
+        // are kept (POST_ORDER without its O(n) maps, but the children are not reordered)
+        STREAM
+    }
+
+    public MaxBisection(NiceTreeDecomposition td) {
+        this.td = td;
+    }
 
     public static double compute(NiceTreeDecomposition td) {
-        assert (td.layers.size() > 0);
+        return new MaxBisection(td).solve();
+    }
 
-        // keep array from previous layer
-        Map<NiceTreeNode, double[][]> previousLayerData = Collections.emptyMap();
+    public static double compute(NiceTreeDecomposition td, ForkJoinPool pool) {
+        MaxBisection mb = new MaxBisection(td);
+        mb.pool = pool;
+        return mb.solve();
+    }
 
-        // iterate over tree layers (bottom-up)
-        for (int layer = td.layers.size() - 1; layer >= 0; layer--) {
-            List<NiceTreeNode> currentLayer = td.layers.get(layer);
-            Map<NiceTreeNode, double[][]> currentLayerData = new HashMap<>(currentLayer.size());
+    public double solve() {
+        if (checkpoint != null && (incremental || schedule != Schedule.STREAM)) {
+            throw new IllegalStateException("checkpoints require the STREAM schedule");
+        }
+        weights = objective == Objective.MIN ? new NegatedGraph(td.graph) : td.graph;
+        final double best;
+        if (incremental) {
+            best = solveIncremental();
+        } else if (schedule == Schedule.SUBTREES && pool != null) {
+            best = solveSubtrees();
+        } else if (schedule == Schedule.LAYERS) {
+            best = solveLayers();
+        } else if (schedule == Schedule.STREAM) {
+            best = solveStream();
+        } else {
+            best = solvePostOrder();
+        }
+        if (metrics != null) {
+            metrics.peak(memory.peak());
+        }
+        // 0.0 - x avoids -0.0
+        return objective == Objective.MIN ? 0.0 - best : best;
+    }
 
-            // TODO: parallelize
-            // iterate over nodes in layer
-            for (NiceTreeNode node : currentLayer) {
-                final int N = node.numSubsets();
-                final int Fi = node.numForgotten;
-                double[][] data = new double[node.numSubsets()][node.numForgotten + 1];
-                currentLayerData.put(node, data);
-
-                // compute B(i,l,S) for each l and S
-                if (node instanceof LeafNode) {
-                    final double[] weights = computeWeightsLeafOrJoin(node, td.graph);
-
-                    for (int s = 0; s < N; s++) {
-                        data[s][0] = weights[s];
+    /**
+     * Solves the DP once and returns the best cut for every size k of the first side (index k),
+     * infinite for sizes that are not possible. The imbalance is ignored.
+     */
+    public double[] solveProfile() {
+        solve();
+        final double[] result = profile.clone();
+        if (objective == Objective.MIN) {
+            for (int k = 0; k < result.length; k++) {
+                result[k] = 0.0 - result[k];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Solves the DP and traces back an optimal bisection for the objective and imbalance.
+     * Vertices that are in no bag are distributed such that the sides stay balanced.
+     * In incremental mode the nodes whose back pointers are recorded are recomputed, the others are kept.
+     */
+    public Bisection solvePartition() {
+        final Graph graph = td.graph;
+        final boolean[] side = new boolean[graph.vertices + 1];
+        final boolean[] placed = new boolean[graph.vertices + 1];
+
+        final double size = solveRecording();
+        if (rootEntry < 0) {
+            throw new IllegalStateException("no bisection found");
+        }
+        final Deque<Step> frontier = new ArrayDeque<>();
+        trace(new Step(td.treeRoot, (int) (rootEntry >>> 32), (int) rootEntry), side, placed, frontier);
+
+        // solve the subtrees below the recorded nodes again
+        while (!frontier.isEmpty()) {
+            final Step step = frontier.pop();
+            final MaxBisection sub = new MaxBisection(new NiceTreeDecomposition(graph, step.node));
+            sub.pool = pool;
+            sub.schedule = schedule;
+            sub.allocator = allocator;
+            sub.heapBudget = heapBudget;
+            sub.backPointerBudget = backPointerBudget;
+            sub.objective = objective;
+            sub.metrics = metrics;
+            sub.weightCache = weightCache;
+            sub.solveRecording();
+            sub.trace(step, side, placed, frontier);
+        }
+
+        // vertices that do not appear in the decomposition
+        int first = 0, second = 0;
+        for (int v = 1; v <= graph.vertices; v++) {
+            if (placed[v]) {
+                if (side[v]) {
+                    first++;
+                } else {
+                    second++;
+                }
+            }
+        }
+        for (int v = 1; v <= graph.vertices; v++) {
+            if (!placed[v]) {
+                side[v] = first < second;
+                if (side[v]) {
+                    first++;
+                } else {
+                    second++;
+                }
+            }
+        }
+
+        return new Bisection(size, side);
+    }
+
+    /**
+     * Entry (S, l) of a node on the path of the traceback.
+     */
+    private static final class Step {
+        final NiceTreeNode node;
+        final int s;
+        final int l;
+
+        Step(NiceTreeNode node, int s, int l) {
+            this.node = node;
+            this.s = s;
+            this.l = l;
+        }
+    }
+
+    /**
+     * Solves the DP and records the back pointers of the nodes closest to the root that fit into the budget.
+     * The first forget or join node is always recorded.
+     */
+    private double solveRecording() {
+        recorded = new HashSet<>();
+        long bytes = 0;
+        recording:
+        for (List<NiceTreeNode> layer : td.layers()) {
+            for (NiceTreeNode node : layer) {
+                final long nodeBytes = BackPointers.bytes(node);
+                if (nodeBytes == 0) {
+                    continue;
+                }
+                if (nodeBytes < 0 || (!recorded.isEmpty() && bytes + nodeBytes > backPointerBudget)) {
+                    if (recorded.isEmpty()) {
+                        throw new IllegalStateException("table of " + node + " is too large for a traceback");
                     }
-                } else if (node instanceof IntroduceNode) {
+                    break recording;
+                }
+                bytes += nodeBytes;
+                recorded.add(node);
+            }
+        }
+        memory.allocate(bytes);
+        try {
+            return solve();
+        } finally {
+            memory.release(bytes);
+        }
+    }
+
+    /**
+     * Follows the back pointers from the given entry down to the leaves and assigns the vertices of the visited bags.
+     * Forget and join nodes without back pointers are added to the frontier.
+     */
+    private void trace(Step start, boolean[] side, boolean[] placed, Deque<Step> frontier) {
+        final Deque<Step> stack = new ArrayDeque<>();
+        stack.push(start);
+        try {
+            while (!stack.isEmpty()) {
+                final Step step = stack.pop();
+                final NiceTreeNode node = step.node;
+                for (int i = 0; i < node.bag.length; i++) {
+                    side[node.bag[i]] = (step.s & (1 << i)) != 0;
+                    placed[node.bag[i]] = true;
+                }
+
+                if (node instanceof IntroduceNode) {
                     final IntroduceNode intro = (IntroduceNode) node;
-                    final double[][] childData = previousLayerData.get(intro.child);
-                    double[] weights = computeWeightsIntroduce(intro, td.graph);
+                    stack.push(new Step(intro.child, intro.getChildSubset(step.s), step.l));
+                } else if (node instanceof ForgetNode || node instanceof JoinNode) {
+                    final BackPointers nodePointers = pointers.get(node);
+                    if (nodePointers == null) {
+                        frontier.push(step);
+                    } else if (node instanceof ForgetNode) {
+                        final ForgetNode forget = (ForgetNode) node;
+                        final boolean included = nodePointers.get(step.s, step.l) != 0;
+                        stack.push(new Step(forget.child, forget.getChildSubset(step.s, included),
+                                included ? step.l - 1 : step.l));
+                    } else {
+                        final JoinNode join = (JoinNode) node;
+                        final int l1 = nodePointers.get(step.s, step.l);
+                        stack.push(new Step(join.leftChild, step.s, l1));
+                        stack.push(new Step(join.rightChild, step.s, step.l - l1));
+                    }
+                }
+            }
+        } finally {
+            pointers.clear();
+            recorded = null;
+        }
+    }
 
-                    for (int s = 0; s < N; s++) {
-                        final int soc = intro.getChildSubset(
-                                // X_i \ S if v in S else S
-                                intro.subsetContainsNewVertex(s) ? node.complement(s) : s
-                        );
-                        final int cs = intro.getChildSubset(s);
-                        final double w = weights[soc];
+    private double solveLayers() {
+        final List<List<NiceTreeNode>> layers = td.layers();
+        assert (layers.size() > 0);
 
-                        for (int l = 0; l <= Fi; l++) {
-                            data[s][l] = childData[cs][l] + w;
+        // keep arrays from previous layer (until the parent is computed)
+        Map<NiceTreeNode, Table> previousLayerData = Collections.emptyMap();
+
+        // iterate over tree layers (bottom-up)
+        for (int layer = layers.size() - 1; layer >= 0; layer--) {
+            final List<NiceTreeNode> currentLayer = layers.get(layer);
+            final Map<NiceTreeNode, Table> childData = previousLayerData;
+            final Table[] results = new Table[currentLayer.size()];
+            final long start = System.nanoTime();
+
+            // iterate over nodes in layer
+            if (pool == null) {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = computeNode(currentLayer.get(i), childData, false);
+                }
+            } else {
+                // nodes of a layer are independent, each result is stored at the node's position
+                pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, results.length).parallel()
+                        .forEach(i -> results[i] = computeNode(currentLayer.get(i), childData, true))));
+            }
+            if (metrics != null) {
+                metrics.layer(System.nanoTime() - start);
+            }
+
+            Map<NiceTreeNode, Table> currentLayerData = new ConcurrentHashMap<>(currentLayer.size());
+            for (int i = 0; i < results.length; i++) {
+                currentLayerData.put(currentLayer.get(i), results[i]);
+            }
+            previousLayerData = currentLayerData;
+        }
+
+        return rootMax(previousLayerData);
+    }
+
+    private double solveSubtrees() {
+        // parent of every node & number of children that are not computed yet
+        final Map<NiceTreeNode, NiceTreeNode> parents = parents(td);
+        final Map<NiceTreeNode, AtomicInteger> pending = new HashMap<>(td.numBags);
+        final List<NiceTreeNode> leaves = new ArrayList<>();
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(td.treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            final int numChildren = node.children().length;
+            pending.put(node, new AtomicInteger(numChildren));
+            if (numChildren == 0) {
+                leaves.add(node);
+            }
+        }
+
+        final Map<NiceTreeNode, Table> tables = new ConcurrentHashMap<>();
+        final CompletableFuture<Table> rootDone = new CompletableFuture<>();
+        // set by the first task that fails, the other tasks stop before their next node
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final CountDownLatch finished = new CountDownLatch(leaves.size());
+
+        for (NiceTreeNode leaf : leaves) {
+            pool.execute(() -> {
+                try {
+                    NiceTreeNode node = leaf;
+                    while (!failed.get()) {
+                        final NiceTreeNode parent = parents.get(node);
+                        Table data = computeNode(node, tables, true);
+                        if (parent != null && parent.children().length > 1) {
+                            data = spillIfOverBudget(data);
+                        }
+                        tables.put(node, data);
+
+                        if (parent == null) {
+                            rootDone.complete(data);
+                            return;
+                        }
+
+                        // the last child to finish continues with the parent
+                        if (pending.get(parent).decrementAndGet() > 0) {
+                            return;
                         }
+                        node = parent;
                     }
-                } else if (node instanceof ForgetNode) {
-                    final ForgetNode forget = (ForgetNode) node;
-                    final double[][] childData = previousLayerData.get(forget.child);
-                    int cs1, cs2;
-
-                    for (int s = 0; s < N; s++) {
-                        cs1 = forget.getChildSubset(s, false);
-                        cs2 = forget.getChildSubset(s, true);
+                } catch (Throwable e) {
+                    failed.set(true);
+                    rootDone.completeExceptionally(e);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        try {
+            rootDone.join();
+            return rootMax(tables);
+        } catch (CompletionException e) {
+            // no task may use the allocator once the exception is thrown
+            awaitUninterruptibly(finished);
+            tables.values().forEach(this::release);
+            tables.clear();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double solvePostOrder() {
+        final Map<NiceTreeNode, Table> tables = new HashMap<>();
+        final Map<NiceTreeNode, NiceTreeNode> parents = parents(td);
+
+        for (NiceTreeNode node : postOrder(td)) {
+            Table data;
+            if (pool == null) {
+                data = computeNode(node, tables, false);
+            } else {
+                data = pool.invoke(ForkJoinTask.adapt(() -> computeNode(node, tables, true)));
+            }
+
+            // the table has to wait while the sibling subtree is evaluated
+            final NiceTreeNode parent = parents.get(node);
+            if (parent != null && Arrays.stream(parent.children()).anyMatch(c -> c != node && !tables.containsKey(c))) {
+                data = spillIfOverBudget(data);
+            }
+            tables.put(node, data);
+        }
+
+        return rootMax(tables);
+    }
+
+    private double solveStream() {
+        // tables of evaluated nodes whose parent is not evaluated yet & their post-order index
+        final Deque<Table> pending = new ArrayDeque<>();
+        final Deque<Integer> pendingIndex = new ArrayDeque<>();
+        // children of the current node
+        final Map<NiceTreeNode, Table> tables = new HashMap<>(4);
+
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(td.treeRoot);
+        final long signature = checkpoint == null ? 0
+                : Checkpoint.signature(td, weights, imbalance, allocator.precision);
+        int index = 0;
+        if (checkpoint != null && resume && Files.exists(checkpoint)) {
+            index = resume(signature, nodes, pending, pendingIndex);
+        }
+        long lastCheckpoint = System.currentTimeMillis();
+
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            final NiceTreeNode[] children = node.children();
+            for (int i = children.length - 1; i >= 0; i--) {
+                tables.put(children[i], pending.pop());
+                pendingIndex.pop();
+            }
+            if (children.length == 0 && !pending.isEmpty()) {
+                // a new subtree starts, the last table has to wait for it
+                pending.push(spillIfOverBudget(pending.pop()));
+            }
+
+            if (pool == null) {
+                pending.push(computeNode(node, tables, false));
+            } else {
+                pending.push(pool.invoke(ForkJoinTask.adapt(() -> computeNode(node, tables, true))));
+            }
+            pendingIndex.push(index++);
+
+            if (checkpoint != null && System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+                writeCheckpoint(signature, index, pending, pendingIndex);
+                lastCheckpoint = System.currentTimeMillis();
+            }
+        }
+
+        tables.put(td.treeRoot, pending.pop());
+        final double best = rootMax(tables);
+        if (checkpoint != null) {
+            try {
+                Files.deleteIfExists(checkpoint);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Loads the pending tables of the checkpoint and skips the evaluated nodes, returns their number.
+     */
+    private int resume(long signature, Iterator<NiceTreeNode> nodes, Deque<Table> pending,
+                       Deque<Integer> pendingIndex) {
+        try (Checkpoint cp = Checkpoint.open(checkpoint)) {
+            if (cp.signature != signature) {
+                throw new IllegalStateException("checkpoint " + checkpoint
+                        + " belongs to another decomposition, graph or options");
+            }
+            int next = 0;
+            for (int index = 0; index < cp.completed; index++) {
+                final NiceTreeNode node = nodes.next();
+                if (next < cp.pending.length && cp.pending[next] == index) {
+                    final Table table = cp.readTable(node, allocator);
+                    memory.allocate(table);
+                    pending.push(table);
+                    pendingIndex.push(index);
+                    next++;
+                }
+            }
+            return cp.completed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeCheckpoint(long signature, int completed, Deque<Table> pending, Deque<Integer> pendingIndex) {
+        // bottom of the stack first
+        final List<Table> tables = new ArrayList<>(pending);
+        final List<Integer> indices = new ArrayList<>(pendingIndex);
+        Collections.reverse(tables);
+        Collections.reverse(indices);
+        try {
+            Checkpoint.write(checkpoint, signature, allocator.precision, completed, indices, tables, tables.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private double solveIncremental() {
+        if (kept == null) {
+            kept = new HashMap<>(td.numBags);
+            parentOf = parents(td);
+            dependents = dependents(td);
+            final List<NiceTreeNode> order = postOrder(td);
+            position = new HashMap<>(td.numBags);
+            for (int i = 0; i < order.size(); i++) {
+                position.put(order.get(i), i);
+            }
+            td.graph.addEdgeListener(edgeListener);
+        }
+        if (keptObjective != objective) {
+            dirty.addAll(position.keySet());
+            keptObjective = objective;
+        }
+        // back pointers are only recorded while a node is computed
+        if (recorded != null) {
+            recorded.forEach(this::markWithAncestors);
+        }
+        // changed weights may leave the range of an integer precision, then all tables are computed wider
+        final Table.Precision precision = allocator.precision;
+        if (!dirty.isEmpty() && (precision == Table.Precision.INT || precision == Table.Precision.SHORT)) {
+            final Table.Precision exact = Table.Precision.exactFor(td.graph);
+            if (exact.bytes > precision.bytes) {
+                allocator.precision = exact;
+                dirty.addAll(position.keySet());
+            }
+        }
+
+        // children before parents
+        final List<NiceTreeNode> nodes = new ArrayList<>(dirty);
+        dirty.removeAll(nodes);
+        nodes.sort(Comparator.comparingInt(position::get));
+        recomputed = nodes.size();
+        for (NiceTreeNode node : nodes) {
+            checkCancelled();
+            final BackPointers nodePointers = recorded != null && recorded.contains(node) ? BackPointers.allocate(node) : null;
+            if (nodePointers != null) {
+                pointers.put(node, nodePointers);
+            }
+            final long start = System.nanoTime();
+            final Table data;
+            if (pool == null) {
+                data = computeNode(node, kept::get, weights, allocator, false, nodePointers, weightCache);
+            } else {
+                data = pool.invoke(ForkJoinTask.adapt(() -> computeNode(node, kept::get, weights, allocator, true, nodePointers, weightCache)));
+            }
+            if (metrics != null) {
+                metrics.node(node, System.nanoTime() - start, data.bytes());
+            }
+            memory.allocate(data);
+            release(kept.put(node, data));
+        }
+
+        final NiceTreeNode root = td.treeRoot;
+        final int total = root.numForgotten + root.size();
+        final int maxSize = (int) Math.min(total, Math.floor((1 + imbalance) * ((total + 1) / 2)));
+        final Table rootData = kept.get(root);
+        rootEntry = rootEntry(root, rootData, total - maxSize, maxSize);
+        profile = rootProfile(root, rootData);
+        return rootEntry < 0 ? Double.NEGATIVE_INFINITY
+                : rootData.get((int) (rootEntry >>> 32), (int) rootEntry);
+    }
+
+    /**
+     * Marks the nodes whose weights depend on the edge {u,v} and their ancestors for the next incremental solve.
+     */
+    private void edgeWeightChanged(int u, int v) {
+        for (NiceTreeNode node : dependents.get(u)) {
+            final int[] bag = node instanceof IntroduceNode ? ((IntroduceNode) node).child.bag : node.bag;
+            if (Arrays.binarySearch(bag, v) >= 0) {
+                markWithAncestors(node);
+            }
+        }
+        for (NiceTreeNode node : dependents.get(v)) {
+            if (node instanceof IntroduceNode && Arrays.binarySearch(((IntroduceNode) node).child.bag, u) >= 0) {
+                markWithAncestors(node);
+            }
+        }
+    }
+
+    private void markWithAncestors(NiceTreeNode node) {
+        // ancestors of a marked node are marked already
+        while (node != null && dirty.add(node)) {
+            node = parentOf.get(node);
+        }
+    }
+
+    /**
+     * For every vertex the nodes whose weights include edges at it: leaf and join nodes for all vertices
+     * of their bag, introduce nodes for the new vertex.
+     */
+    private static List<List<NiceTreeNode>> dependents(NiceTreeDecomposition td) {
+        final List<List<NiceTreeNode>> dependents = new ArrayList<>(td.graph.vertices + 1);
+        for (int v = 0; v <= td.graph.vertices; v++) {
+            dependents.add(new ArrayList<>(0));
+        }
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(td.treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            if (node instanceof IntroduceNode) {
+                dependents.get(((IntroduceNode) node).newVertex).add(node);
+            } else if (node instanceof LeafNode || node instanceof JoinNode) {
+                for (int v : node.bag) {
+                    dependents.get(v).add(node);
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Makes a running (or the next) solve throw a CancellationException before it computes the next node.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("solve was cancelled");
+        }
+    }
+
+    /**
+     * Releases the tables kept by the incremental mode.
+     */
+    public void clear() {
+        if (kept != null) {
+            td.graph.removeEdgeListener(edgeListener);
+            kept.values().forEach(this::release);
+            kept = null;
+            keptObjective = null;
+            dirty.clear();
+        }
+    }
+
+    private Table spillIfOverBudget(Table table) {
+        if (memory.live() <= heapBudget || table.heapBytes() == 0) {
+            return table;
+        }
+        memory.release(table);
+        final Table spilled = allocator.spill(table);
+        memory.allocate(spilled);
+        return spilled;
+    }
+
+    static Map<NiceTreeNode, NiceTreeNode> parents(NiceTreeDecomposition td) {
+        final Map<NiceTreeNode, NiceTreeNode> parents = new HashMap<>(td.numBags);
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(td.treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            for (NiceTreeNode child : node.children()) {
+                parents.put(child, node);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Post-order of the nodes in which the child whose subtree needs more table memory
+     * is evaluated first. This minimizes the peak memory of the live tables (Sethi-Ullman).
+     */
+    static List<NiceTreeNode> postOrder(NiceTreeDecomposition td) {
+        // memory needed to evaluate each subtree (bottom-up)
+        // in table entries, the order does not depend on the precision
+        final Map<NiceTreeNode, Double> need = new HashMap<>(td.numBags);
+        final Iterator<NiceTreeNode> nodes = NiceTreeDecomposition.postOrder(td.treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            double n = CostModel.tableSize(node);
+            double pending = 0.0;
+            for (NiceTreeNode child : heavyFirst(node, need)) {
+                n = Math.max(n, pending + need.get(child));
+                pending += CostModel.tableSize(child);
+            }
+            need.put(node, Math.max(n, pending + CostModel.tableSize(node)));
+        }
+
+        // iterative DFS, children are pushed in reverse order
+        final List<NiceTreeNode> order = new ArrayList<>(td.numBags);
+        final Deque<NiceTreeNode> stack = new ArrayDeque<>();
+        final Deque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(td.treeRoot);
+        expanded.push(false);
+        while (!stack.isEmpty()) {
+            final NiceTreeNode node = stack.pop();
+            if (expanded.pop()) {
+                order.add(node);
+                continue;
+            }
+            stack.push(node);
+            expanded.push(true);
+            final NiceTreeNode[] children = heavyFirst(node, need);
+            for (int i = children.length - 1; i >= 0; i--) {
+                stack.push(children[i]);
+                expanded.push(false);
+            }
+        }
+
+        return order;
+    }
+
+    private static NiceTreeNode[] heavyFirst(NiceTreeNode node, Map<NiceTreeNode, Double> need) {
+        final NiceTreeNode[] children = node.children();
+        if (children.length == 2 && need.get(children[1]) - CostModel.tableSize(children[1])
+                > need.get(children[0]) - CostModel.tableSize(children[0])) {
+            return new NiceTreeNode[]{children[1], children[0]};
+        }
+        return children;
+    }
+
+    /**
+     * Computes the table of a node, marks it as allocated and releases the tables of its children.
+     */
+    private Table computeNode(NiceTreeNode node, Map<NiceTreeNode, Table> tables, boolean parallel) {
+        checkCancelled();
+        BackPointers nodePointers = null;
+        if (recorded != null && recorded.contains(node)) {
+            nodePointers = BackPointers.allocate(node);
+            pointers.put(node, nodePointers);
+        }
+        final long start = System.nanoTime();
+        final Table data = computeNode(node, tables::get, weights, allocator, parallel, nodePointers, weightCache);
+        if (metrics != null) {
+            metrics.node(node, System.nanoTime() - start, data.bytes());
+        }
+        memory.allocate(data);
+        for (NiceTreeNode child : node.children()) {
+            release(tables.remove(child));
+        }
+        return data;
+    }
+
+    private void release(Table table) {
+        if (table != null) {
+            memory.release(table);
+            allocator.release(table);
+        }
+    }
+
+    /**
+     * Final max over the root table for the allowed sizes of the first side, the root table is released afterwards.
+     */
+    private double rootMax(Map<NiceTreeNode, Table> tables) {
+        final NiceTreeNode root = td.treeRoot;
+        final Table rootData = tables.remove(root);
+        final int total = root.numForgotten + root.size();
+        final int maxSize = (int) Math.min(total, Math.floor((1 + imbalance) * ((total + 1) / 2)));
+        rootEntry = rootEntry(root, rootData, total - maxSize, maxSize);
+        profile = rootProfile(root, rootData);
+        final double size = rootEntry < 0 ? Double.NEGATIVE_INFINITY
+                : rootData.get((int) (rootEntry >>> 32), (int) rootEntry);
+        release(rootData);
+        return size;
+    }
+
+    /**
+     * Computes B(i,l,S) for each l and S of the given node from the tables of its children.
+     * If parallel is set, blocks of subsets are processed concurrently in the current ForkJoinPool.
+     */
+    static Table computeNode(NiceTreeNode node, Function<NiceTreeNode, Table> tables, Graph graph,
+                             TableAllocator allocator, boolean parallel) {
+        return computeNode(node, tables, graph, allocator, parallel, null);
+    }
+
+    /**
+     * Like computeNode, but also stores the argmax of every entry of a forget or join node in pointers (if not null).
+     */
+    static Table computeNode(NiceTreeNode node, Function<NiceTreeNode, Table> tables, Graph graph,
+                             TableAllocator allocator, boolean parallel, BackPointers pointers) {
+        return computeNode(node, tables, graph, allocator, parallel, pointers, null);
+    }
+
+    /**
+     * Like computeNode, but takes the cut weights from the cache (if not null).
+     */
+    static Table computeNode(NiceTreeNode node, Function<NiceTreeNode, Table> tables, Graph graph,
+                             TableAllocator allocator, boolean parallel, BackPointers pointers, WeightCache cache) {
+        final int N = node.numSubsets();
+        final int Fi = node.numForgotten;
+        final Table data = allocator.allocate(node);
+
+        if (node instanceof LeafNode) {
+            final double[] weights = cache == null ? computeWeightsLeafOrJoin(node, graph, parallel)
+                    : cache.get(graph, node.bag, 0, () -> computeWeightsLeafOrJoin(node, graph, parallel));
+
+            forEachBlock(N, parallel, from -> {
+                final double[] row = new double[1];
+                for (int s = from; s < from + blockSize(N); s++) {
+                    row[0] = weights[s];
+                    data.setRow(s, row);
+                }
+            });
+        } else if (node instanceof IntroduceNode) {
+            final IntroduceNode intro = (IntroduceNode) node;
+            final Table childData = tables.apply(intro.child);
+            final double[] weights = cache == null ? computeWeightsIntroduce(intro, graph, parallel)
+                    : cache.get(graph, intro.child.bag, intro.newVertex,
+                            () -> computeWeightsIntroduce(intro, graph, parallel));
+
+            forEachBlock(N, parallel, from -> {
+                final double[] row = new double[Fi + 1];
+                for (int s = from; s < from + blockSize(N); s++) {
+                    final int soc = intro.getChildSubset(
+                            // X_i \ S if v in S else S
+                            intro.subsetContainsNewVertex(s) ? node.complement(s) : s
+                    );
+                    final int cs = intro.getChildSubset(s);
+                    final double w = weights[soc];
+
+                    childData.getRow(cs, row);
+                    for (int l = 0; l <= Fi; l++) {
+                        row[l] += w;
+                    }
+                    data.setRow(s, row);
+                }
+            });
+        } else if (node instanceof ForgetNode) {
+            final ForgetNode forget = (ForgetNode) node;
+            final Table childData = tables.apply(forget.child);
+
+            forEachBlock(N, parallel, from -> {
+                // child rows have Fi entries
+                final double[] row1 = new double[Fi];
+                final double[] row2 = new double[Fi];
+                final double[] row = new double[Fi + 1];
+                for (int s = from; s < from + blockSize(N); s++) {
+                    childData.getRow(forget.getChildSubset(s, false), row1);
+                    childData.getRow(forget.getChildSubset(s, true), row2);
+                    for (int l = 0; l <= Fi; l++) {
+                        double b1 = l < Fi ? row1[l] : Double.NEGATIVE_INFINITY;
+                        double b2 = l > 0 ? row2[l - 1] : Double.NEGATIVE_INFINITY;
+                        row[l] = Math.max(b1, b2);
+                    }
+                    if (pointers != null) {
                         for (int l = 0; l <= Fi; l++) {
-                            double b1 = l < Fi ? childData[cs1][l] : Double.NEGATIVE_INFINITY;
-                            double b2 = l > 0 ? childData[cs2][l - 1] : Double.NEGATIVE_INFINITY;
-                            data[s][l] = Math.max(b1, b2);
+                            pointers.set(s, l, l > 0 && (l == Fi || row2[l - 1] > row1[l]) ? 1 : 0);
                         }
                     }
-                } else if (node instanceof JoinNode) {
-                    final JoinNode join = (JoinNode) node;
-                    final double[][] left = previousLayerData.get(join.leftChild);
-                    final double[][] right = previousLayerData.get(join.rightChild);
-                    final double[] weights = computeWeightsLeafOrJoin(node, td.graph);
-                    final int Fj = join.leftChild.numForgotten;
-                    final int Fk = join.rightChild.numForgotten;
-
-                    for (int s = 0; s < N; s++) {
+                    data.setRow(s, row);
+                }
+            });
+        } else if (node instanceof JoinNode) {
+            final JoinNode join = (JoinNode) node;
+            final Table left = tables.apply(join.leftChild);
+            final Table right = tables.apply(join.rightChild);
+            final double[] weights = cache == null ? computeWeightsLeafOrJoin(node, graph, parallel)
+                    : cache.get(graph, node.bag, 0, () -> computeWeightsLeafOrJoin(node, graph, parallel));
+            final int Fj = join.leftChild.numForgotten;
+            final int Fk = join.rightChild.numForgotten;
+
+            forEachBlock(N, parallel, from -> {
+                final double[] leftRow = new double[Fj + 1];
+                final double[] rightRow = new double[Fk + 1];
+                final double[] row = new double[Fi + 1];
+                final int[] arg = pointers == null ? null : new int[Fi + 1];
+                for (int s = from; s < from + blockSize(N); s++) {
+                    left.getRow(s, leftRow);
+                    right.getRow(s, rightRow);
+                    maxPlusConvolution(leftRow, rightRow, row, arg);
+                    final double w = weights[s];
+                    for (int l = 0; l <= Fi; l++) {
+                        row[l] -= w;
+                    }
+                    if (arg != null) {
                         for (int l = 0; l <= Fi; l++) {
-                            double maxb = Double.NEGATIVE_INFINITY;
-
-                            final int start = Math.max(0, l - Fk);
-                            final int end = Math.min(l, Fj);
-                            for (int l1 = start; l1 <= end; l1++) {
-                                final int l2 = l - l1;
-                                double b = left[s][l1] + right[s][l2] - weights[s];
-                                if (b > maxb) {
-                                    maxb = b;
-                                }
-                            }
-
-                            data[s][l] = maxb;
+                            pointers.set(s, l, arg[l]);
                         }
                     }
+                    data.setRow(s, row);
+                }
+            });
+        } else {
+            assert (false);
+        }
+
+        return data;
+    }
+
+    /**
+     * Join kernel: out[l] = max { a[l1] + b[l2] | l1 + l2 = l } for 0 <= l < a.length + b.length - 1.
+     * Entries that are -Infinity are skipped. If both rows are concave the maximum is found by
+     * merging their slopes in linear time, otherwise all pairs of finite entries are combined.
+     */
+    static void maxPlusConvolution(double[] a, double[] b, double[] out) {
+        maxPlusConvolution(a, b, out, null);
+    }
+
+    /**
+     * Join kernel that also stores the maximizing l1 of every finite out[l] in arg[l] (if not null).
+     */
+    static void maxPlusConvolution(double[] a, double[] b, double[] out, int[] arg) {
+        final int n = a.length + b.length - 1;
+        assert (out.length >= n);
+        Arrays.fill(out, 0, n, Double.NEGATIVE_INFINITY);
+
+        // range of finite entries
+        int lo1 = 0, hi1 = a.length - 1, lo2 = 0, hi2 = b.length - 1;
+        while (lo1 <= hi1 && a[lo1] == Double.NEGATIVE_INFINITY) {
+            lo1++;
+        }
+        while (hi1 >= lo1 && a[hi1] == Double.NEGATIVE_INFINITY) {
+            hi1--;
+        }
+        while (lo2 <= hi2 && b[lo2] == Double.NEGATIVE_INFINITY) {
+            lo2++;
+        }
+        while (hi2 >= lo2 && b[hi2] == Double.NEGATIVE_INFINITY) {
+            hi2--;
+        }
+        if (lo1 > hi1 || lo2 > hi2) {
+            return;
+        }
+
+        if (isConcave(a, lo1, hi1) && isConcave(b, lo2, hi2)) {
+            // the sum of concave sequences takes the larger next slope in every step
+            int i = lo1, j = lo2;
+            out[i + j] = a[i] + b[j];
+            if (arg != null) {
+                arg[i + j] = i;
+            }
+            while (i < hi1 || j < hi2) {
+                if (j == hi2 || (i < hi1 && a[i + 1] - a[i] >= b[j + 1] - b[j])) {
+                    i++;
                 } else {
-                    assert (false);
+                    j++;
+                }
+                out[i + j] = a[i] + b[j];
+                if (arg != null) {
+                    arg[i + j] = i;
                 }
             }
+            return;
+        }
 
-            previousLayerData = currentLayerData;
+        if (arg != null) {
+            for (int l1 = lo1; l1 <= hi1; l1++) {
+                final double x = a[l1];
+                if (x == Double.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                for (int l2 = lo2; l2 <= hi2; l2++) {
+                    final double v = x + b[l2];
+                    if (v > out[l1 + l2]) {
+                        out[l1 + l2] = v;
+                        arg[l1 + l2] = l1;
+                    }
+                }
+            }
+            return;
+        }
+
+        for (int l1 = lo1; l1 <= hi1; l1++) {
+            final double x = a[l1];
+            if (x == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            for (int l2 = lo2; l2 <= hi2; l2++) {
+                final double v = x + b[l2];
+                if (v > out[l1 + l2]) {
+                    out[l1 + l2] = v;
+                }
+            }
         }
+    }
 
-        // final max over root (eq. 7)
-        final double[][] rootData = previousLayerData.get(td.treeRoot);
-        final int N = td.treeRoot.numSubsets();
-        final int Fr = td.treeRoot.numForgotten;
-        final int Yrh = (Fr + td.treeRoot.size()) / 2;
+    private static boolean isConcave(double[] a, int lo, int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            if (a[i] == Double.NEGATIVE_INFINITY || a[i] - a[i - 1] < a[i + 1] - a[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of subsets per block. Blocks are aligned, i.e. a block starting at s
+     * contains exactly the subsets s | t for 0 <= t < blockSize(n).
+     */
+    static int blockSize(int numSubsets) {
+        return Math.min(numSubsets, 1 << BLOCK_BITS);
+    }
+
+    /**
+     * Calls block.accept(from) for the first subset of every block.
+     */
+    static void forEachBlock(int numSubsets, boolean parallel, IntConsumer block) {
+        final int size = blockSize(numSubsets);
+        final int numBlocks = numSubsets / size;
+        if (parallel && numBlocks > 1) {
+            IntStream.range(0, numBlocks).parallel().forEach(b -> block.accept(b * size));
+        } else {
+            for (int b = 0; b < numBlocks; b++) {
+                block.accept(b * size);
+            }
+        }
+    }
+
+    /**
+     * Final max over the root table (eq. 7).
+     */
+    static double rootMax(NiceTreeNode root, Table rootData) {
+        final int Yrh = (root.numForgotten + root.size()) / 2;
+        final long entry = rootEntry(root, rootData, Yrh, Yrh);
+        return entry < 0 ? Double.NEGATIVE_INFINITY : rootData.get((int) (entry >>> 32), (int) entry);
+    }
+
+    /**
+     * Entry (S, l) of the root table with the largest value such that minSize <= |S| + l <= maxSize,
+     * packed as S << 32 | l, or -1 if there is none.
+     */
+    static long rootEntry(NiceTreeNode root, Table rootData, int minSize, int maxSize) {
+        final int N = root.numSubsets();
+        final int Fr = root.numForgotten;
         double size = Double.NEGATIVE_INFINITY;
+        long best = -1;
 
         for (int s = 0; s < N; s++) {
-            final int l = Yrh - Integer.bitCount(s);
-            if(l < 0 || Fr < l) {
-                continue;
-            }
-            double b = rootData[s][l];
-            if (b > size) {
-                size = b;
+            final int k = Integer.bitCount(s);
+            for (int l = Math.max(0, minSize - k); l <= Math.min(Fr, maxSize - k); l++) {
+                double b = rootData.get(s, l);
+                if (b > size) {
+                    size = b;
+                    best = (long) s << 32 | l;
+                }
             }
         }
 
-        return size;
+        return best;
+    }
+
+    /**
+     * Largest value of the root table for every size |S| + l of the first side.
+     */
+    static double[] rootProfile(NiceTreeNode root, Table rootData) {
+        final double[] profile = new double[root.numForgotten + root.size() + 1];
+        Arrays.fill(profile, Double.NEGATIVE_INFINITY);
+        for (int s = 0; s < root.numSubsets(); s++) {
+            final int k = Integer.bitCount(s);
+            for (int l = 0; l <= root.numForgotten; l++) {
+                profile[k + l] = Math.max(profile[k + l], rootData.get(s, l));
+            }
+        }
+        return profile;
     }
 
     public static double[] computeWeightsIntroduce(IntroduceNode node, Graph graph) {
+        return computeWeightsIntroduce(node, graph, false);
+    }
+
+    static double[] computeWeightsIntroduce(IntroduceNode node, Graph graph, boolean parallel) {
         final int n = node.child.numSubsets();
         final int v = node.newVertex;
         final int[] childBag = node.child.bag;
-        double[] di = new double[n];
+        final double[] di = new double[n];
 
-        // iterate over subsets
-        for(int s=1; s<n; s++) {
-            final int bitDiff = s ^ (s-1);
-            final int newVertexMask = s & bitDiff;
-            assert(Integer.bitCount(newVertexMask) == 1);
-            final int uIndex = Integer.numberOfTrailingZeros(newVertexMask);
-            final int u = childBag[uIndex];
-            // s_known = S, s = S \cup {u}
-            final int s_known = s & ~newVertexMask;
-            di[s] = di[s_known] + graph.getEdgeWeightSafe(u, v);
+        // weights between the child bag and v, read once instead of once per subset
+        final double[] row = new double[childBag.length];
+        for (int uIndex = 0; uIndex < childBag.length; uIndex++) {
+            row[uIndex] = graph.getEdgeWeight(Math.min(childBag[uIndex], v), Math.max(childBag[uIndex], v));
         }
 
+        forEachBlock(n, parallel, from -> {
+            // first subset of a block: sum up directly
+            for (int uIndex = 0; uIndex < childBag.length; uIndex++) {
+                if ((from & (1 << uIndex)) != 0) {
+                    di[from] += row[uIndex];
+                }
+            }
+
+            // iterate over subsets, s = S \cup {u} for the lowest vertex u of s
+            for (int s = from + 1; s < from + blockSize(n); s++) {
+                final int newVertexMask = s & -s;
+                di[s] = di[s & ~newVertexMask] + row[Integer.numberOfTrailingZeros(newVertexMask)];
+            }
+        });
+
         return di;
     }
 
+    /**
+     * Weights between the vertices of a bag as a flat bag.length x bag.length matrix (zero diagonal).
+     */
+    static double[] bagWeights(int[] bag, Graph graph) {
+        final int k = bag.length;
+        final double[] matrix = new double[k * k];
+        for (int i = 0; i < k; i++) {
+            for (int j = i + 1; j < k; j++) {
+                // bags are sorted
+                final double w = graph.getEdgeWeight(bag[i], bag[j]);
+                matrix[i * k + j] = w;
+                matrix[j * k + i] = w;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Bitmask of the neighbors of every bag vertex if all weights of the matrix are 0 or 1, null otherwise.
+     */
+    static int[] neighborMasks(double[] matrix, int k) {
+        final int[] masks = new int[k];
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                final double w = matrix[i * k + j];
+                if (w == 1.0) {
+                    masks[i] |= 1 << j;
+                } else if (w != 0.0) {
+                    return null;
+                }
+            }
+        }
+        return masks;
+    }
+
     public static double[] computeWeightsLeafOrJoin(NiceTreeNode node, Graph graph) {
+        return computeWeightsLeafOrJoin(node, graph, false);
+    }
+
+    static double[] computeWeightsLeafOrJoin(NiceTreeNode node, Graph graph, boolean parallel) {
         assert (node instanceof LeafNode || node instanceof JoinNode);
         final int n = node.numSubsets();
-        double[] ws = new double[n];
-
-        // iterate over subsets
-        for(int s=1; s<n; s++) {
-            final int bitDiff = s ^ (s-1);
-            final int newVertexMask = s & bitDiff;
-            assert(Integer.bitCount(newVertexMask) == 1);
-            final int vIndex = Integer.numberOfTrailingZeros(newVertexMask);
-            final int v = node.bag[vIndex];
-            // s_known = S, s = S \cup {v}
-            final int s_known = s & ~newVertexMask;
-            final double w = ws[s_known];
-
-            // w1 = w({v}, S) and w2 = w({v}, X_i \ (S \cup {v}))
-            double w1 = 0.0, w2 = 0.0;
-
-            // iterate over X_i \ {v} to compute weight diff
-            for (int uIndex = 0; uIndex < node.bag.length; uIndex++) {
-                // TODO: improve (/2)
-                if (uIndex == vIndex) {
+        final int k = node.bag.length;
+        final double[] ws = new double[n];
+        final double[] matrix = bagWeights(node.bag, graph);
+        final int[] masks = neighborMasks(matrix, k);
+        // w({v}, X_i)
+        final double[] rowSum = new double[k];
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                rowSum[i] += matrix[i * k + j];
+            }
+        }
+
+        forEachBlock(n, parallel, from -> {
+            // first subset of a block: w(S, X_i \ S) directly
+            for (int vIndex = 0; vIndex < k; vIndex++) {
+                if ((from & (1 << vIndex)) == 0) {
                     continue;
                 }
+                for (int uIndex = 0; uIndex < k; uIndex++) {
+                    if ((from & (1 << uIndex)) == 0) {
+                        ws[from] += matrix[vIndex * k + uIndex];
+                    }
+                }
+            }
 
-                final int u = node.bag[uIndex];
-                final double wuv = graph.getEdgeWeightSafe(u, v);
-
-                // is u in S?
-                if ((s_known & (1<<uIndex)) != 0) {
-                    w1 += wuv;
+            // iterate over subsets, s = S \cup {v} for the lowest vertex v of s:
+            // w(s, X_i \ s) = w(S, X_i \ S) + w({v}, X_i) - 2 w({v}, S)
+            for (int s = from + 1; s < from + blockSize(n); s++) {
+                final int newVertexMask = s & -s;
+                final int vIndex = Integer.numberOfTrailingZeros(newVertexMask);
+                final int sKnown = s & ~newVertexMask;
+                final double inner;
+                if (masks != null) {
+                    inner = Integer.bitCount(masks[vIndex] & sKnown);
                 } else {
-                    w2 += wuv;
+                    double sum = 0.0;
+                    for (int rest = sKnown; rest != 0; rest &= rest - 1) {
+                        sum += matrix[vIndex * k + Integer.numberOfTrailingZeros(rest)];
+                    }
+                    inner = sum;
                 }
+                ws[s] = ws[sKnown] + rowSum[vIndex] - 2 * inner;
             }
-
-            ws[s] = w - w1 + w2;
-        }
+        });
 
         return ws;
     }
@@ -0,0 +1,53 @@
+package bisection;
+
+/**
+ * View of a graph with negated edge weights. A maximum cut of the view is a minimum cut of the graph.
+ */
+class NegatedGraph extends Graph {
+    final Graph graph;
+
+    NegatedGraph(Graph graph) {
+        super(graph.vertices, false);
+        this.graph = graph;
+    }
+
+    @Override
+    public void setEdgeWeight(int u, int v, double weight) {
+        graph.setEdgeWeight(u, v, -weight);
+    }
+
+    @Override
+    public void addEdgeListener(EdgeListener listener) {
+        graph.addEdgeListener(listener);
+    }
+
+    @Override
+    public void removeEdgeListener(EdgeListener listener) {
+        graph.removeEdgeListener(listener);
+    }
+
+    @Override
+    long version() {
+        return graph.version();
+    }
+
+    @Override
+    public double getEdgeWeight(int u, int v) {
+        return -graph.getEdgeWeight(u, v);
+    }
+
+    @Override
+    public int[] neighbors(int v) {
+        return graph.neighbors(v);
+    }
+
+    @Override
+    public double absoluteWeight() {
+        return graph.absoluteWeight();
+    }
+
+    @Override
+    public boolean hasIntegerWeights() {
+        return graph.hasIntegerWeights();
+    }
+}
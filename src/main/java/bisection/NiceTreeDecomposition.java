@@ -1,16 +1,23 @@
 package bisection;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class NiceTreeDecomposition {
     public final Graph graph;
     public final NiceTreeNode treeRoot;
-    public final ArrayList<ArrayList<NiceTreeNode>> layers = new ArrayList<>();
     public int width;
     public int numBags;
+    // built on first use
+    private List<List<NiceTreeNode>> layers = null;
 
     public NiceTreeDecomposition(Graph graph, NiceTreeNode tree) {
         this.graph = graph;
@@ -31,40 +38,91 @@ public class NiceTreeDecomposition {
 
     private void process() {
         assert (treeRoot != null);
-        ArrayList<NiceTreeNode> currentLayer = new ArrayList<>(1);
-        currentLayer.add(treeRoot);
-        layers.add(currentLayer);
         int n = 0;
+        final Iterator<NiceTreeNode> nodes = postOrder(treeRoot);
+        while (nodes.hasNext()) {
+            final NiceTreeNode node = nodes.next();
+            n++;
+            width = Math.max(width, node.bag.length - 1);
+            if (node.bag.length > 32) {
+                throw new IllegalStateException("Treewidth must be < 32 (was " + width + ")");
+            }
+        }
 
-        while (true) {
-            ArrayList<NiceTreeNode> nextLayer = new ArrayList<>(currentLayer.size() + 1);
-            n += currentLayer.size();
+        numBags = n;
+    }
 
-            for (NiceTreeNode node : currentLayer) {
-                width = Math.max(width, node.bag.length - 1);
-                if (node.bag.length > 32) {
-                    throw new IllegalStateException("Treewidth must be < 32 (was " + width + ")");
+    /**
+     * Nodes by depth, layer 0 contains the root. The layers are built on the first call, only the LAYERS schedule
+     * and traversals in breadth-first order need them, everything else walks the tree with {@link #postOrder}.
+     */
+    public synchronized List<List<NiceTreeNode>> layers() {
+        if (layers == null) {
+            final List<List<NiceTreeNode>> result = new ArrayList<>();
+            List<NiceTreeNode> currentLayer = Collections.singletonList(treeRoot);
+            while (!currentLayer.isEmpty()) {
+                result.add(Collections.unmodifiableList(currentLayer));
+                final List<NiceTreeNode> nextLayer = new ArrayList<>(currentLayer.size() + 1);
+                for (NiceTreeNode node : currentLayer) {
+                    nextLayer.addAll(Arrays.asList(node.children()));
                 }
+                currentLayer = nextLayer;
+            }
+            layers = Collections.unmodifiableList(result);
+        }
+        return layers;
+    }
+
+    /**
+     * Lazy post-order of the subtree of root, children from first to last. Only the path from root to the
+     * current node is stored.
+     */
+    public static Iterator<NiceTreeNode> postOrder(NiceTreeNode root) {
+        return new Iterator<NiceTreeNode>() {
+            // ancestors of next & index of the child to visit after the current one
+            private final Deque<NiceTreeNode> path = new ArrayDeque<>();
+            private final Deque<Integer> nextChild = new ArrayDeque<>();
+            private NiceTreeNode next = descend(root);
 
-                if (node instanceof IntroduceNode) {
-                    nextLayer.add(((IntroduceNode) node).child);
-                } else if (node instanceof ForgetNode) {
-                    nextLayer.add(((ForgetNode) node).child);
-                } else if (node instanceof JoinNode) {
-                    nextLayer.add(((JoinNode) node).leftChild);
-                    nextLayer.add(((JoinNode) node).rightChild);
+            private NiceTreeNode descend(NiceTreeNode node) {
+                NiceTreeNode[] children = node.children();
+                while (children.length > 0) {
+                    path.push(node);
+                    nextChild.push(1);
+                    node = children[0];
+                    children = node.children();
                 }
+                return node;
             }
 
-            if (nextLayer.size() > 0) {
-                layers.add(nextLayer);
-                currentLayer = nextLayer;
-            } else {
-                break;
+            @Override
+            public boolean hasNext() {
+                return next != null;
             }
-        }
 
-        numBags = n;
+            @Override
+            public NiceTreeNode next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final NiceTreeNode result = next;
+                if (path.isEmpty()) {
+                    next = null;
+                } else {
+                    final NiceTreeNode parent = path.peek();
+                    final NiceTreeNode[] siblings = parent.children();
+                    final int i = nextChild.pop();
+                    if (i < siblings.length) {
+                        nextChild.push(i + 1);
+                        next = descend(siblings[i]);
+                    } else {
+                        path.pop();
+                        next = parent;
+                    }
+                }
+                return result;
+            }
+        };
     }
 
     public static abstract class NiceTreeNode {
@@ -79,6 +137,12 @@ public class NiceTreeDecomposition {
             count += 1;
         }
 
+        private static final NiceTreeNode[] NO_CHILDREN = new NiceTreeNode[0];
+
+        public NiceTreeNode[] children() {
+            return NO_CHILDREN;
+        }
+
         public int numSubsets() {
             assert (bag.length < 32);
             return 1 << bag.length;
@@ -152,6 +216,11 @@ public class NiceTreeDecomposition {
             }
         }
 
+        @Override
+        public NiceTreeNode[] children() {
+            return new NiceTreeNode[]{child};
+        }
+
         public int getChildSubset(int s) {
             final int mask = (1 << newVertexIndex) - 1;
             return ((s >> 1) & ~mask) | (s & mask);
@@ -194,6 +263,11 @@ public class NiceTreeDecomposition {
             assert (this.childVertexIndex >= 0);
         }
 
+        @Override
+        public NiceTreeNode[] children() {
+            return new NiceTreeNode[]{child};
+        }
+
         public int getChildSubset(int s, boolean includeForgotten) {
             final int mask = (1 << childVertexIndex) - 1;
             int subset = ((s & ~mask) << 1) | (s & mask);
@@ -225,6 +299,11 @@ public class NiceTreeDecomposition {
             }
         }
 
+        @Override
+        public NiceTreeNode[] children() {
+            return new NiceTreeNode[]{leftChild, rightChild};
+        }
+
         public String toString() {
             return "Join " + super.toString();
         }
@@ -0,0 +1,94 @@
+package bisection;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import static bisection.NiceTreeDecomposition.NiceTreeNode;
+
+/**
+ * JFR event of a computed DP node ("bisection.Node"). The event type is created through jdk.jfr.EventFactory
+ * by reflection on first use, so the sources compile for Java 8 and JVMs without a flight recorder only fail
+ * if events are requested.
+ */
+final class NodeEvent {
+    private static volatile NodeEvent instance = null;
+
+    private final Object factory;
+    private final Method newEvent;
+    private final Method shouldCommit;
+    private final Method set;
+    private final Method commit;
+
+    private NodeEvent() throws ReflectiveOperationException {
+        final Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement")
+                .getConstructor(Class.class, Object.class);
+        final Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor")
+                .getConstructor(Class.class, String.class, List.class);
+        final Class<?> label = Class.forName("jdk.jfr.Label");
+
+        final List<Object> eventAnnotations = Arrays.asList(
+                annotation.newInstance(Class.forName("jdk.jfr.Name"), "bisection.Node"),
+                annotation.newInstance(label, "DP Node"),
+                annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"td-bisection"}));
+        // in the order of the indices of emit
+        final List<Object> fields = Arrays.asList(
+                field.newInstance(int.class, "nodeId", Arrays.asList(annotation.newInstance(label, "Node"))),
+                field.newInstance(String.class, "type", Arrays.asList(annotation.newInstance(label, "Type"))),
+                field.newInstance(int.class, "bagSize", Arrays.asList(annotation.newInstance(label, "Bag Size"))),
+                field.newInstance(int.class, "forgotten",
+                        Arrays.asList(annotation.newInstance(label, "Forgotten Vertices"))),
+                field.newInstance(long.class, "tableBytes", Arrays.asList(annotation.newInstance(label, "Table Size"),
+                        annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES"))),
+                field.newInstance(long.class, "computeTime", Arrays.asList(annotation.newInstance(label, "Compute Time"),
+                        annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"))));
+
+        final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+        factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+        newEvent = eventFactory.getMethod("newEvent");
+        final Class<?> event = Class.forName("jdk.jfr.Event");
+        shouldCommit = event.getMethod("shouldCommit");
+        set = event.getMethod("set", int.class, Object.class);
+        commit = event.getMethod("commit");
+    }
+
+    /**
+     * The event type, created on the first call. Throws an UnsupportedOperationException if the JVM has no
+     * flight recorder (Java 8 before 8u262).
+     */
+    static NodeEvent get() {
+        NodeEvent event = instance;
+        if (event == null) {
+            synchronized (NodeEvent.class) {
+                event = instance;
+                if (event == null) {
+                    try {
+                        event = new NodeEvent();
+                    } catch (ReflectiveOperationException | LinkageError e) {
+                        throw new UnsupportedOperationException("this JVM does not support JFR events", e);
+                    }
+                    instance = event;
+                }
+            }
+        }
+        return event;
+    }
+
+    void emit(NiceTreeNode node, SolveMetrics.NodeType type, long nanos, long bytes) {
+        try {
+            final Object event = newEvent.invoke(factory);
+            if ((Boolean) shouldCommit.invoke(event)) {
+                set.invoke(event, 0, node.id);
+                set.invoke(event, 1, type.name().toLowerCase());
+                set.invoke(event, 2, node.size());
+                set.invoke(event, 3, node.numForgotten);
+                set.invoke(event, 4, bytes);
+                set.invoke(event, 5, nanos);
+                commit.invoke(event);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
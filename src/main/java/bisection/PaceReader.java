@@ -0,0 +1,238 @@
+package bisection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Line and token reader for the PACE .gr and .td formats.
+ * Files are memory-mapped in windows of up to 1 GB. The current line is copied into a reusable
+ * buffer and tokenized in place, so reading does not allocate per line or per token.
+ * Lines starting with 'c' are comments and skipped. Tokens are counted like String.split("\\s+").
+ */
+final class PaceReader implements AutoCloseable {
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private long windowEnd;
+    private ByteBuffer buffer;
+
+    // current line
+    private byte[] line = new byte[256];
+    private int length = 0;
+    private int[] tokenStart = new int[16];
+    private int[] tokenEnd = new int[16];
+    private int numTokens = 0;
+
+    private PaceReader(FileChannel channel, long size, ByteBuffer buffer) {
+        this.channel = channel;
+        this.size = size;
+        this.buffer = buffer;
+        this.windowEnd = buffer.limit();
+    }
+
+    static PaceReader open(Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        final long size = channel.size();
+        try {
+            return new PaceReader(channel, size, channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE)));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of bytes of the input.
+     */
+    long size() {
+        return size;
+    }
+
+    static PaceReader of(String input) {
+        final ByteBuffer buffer = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+        return new PaceReader(null, buffer.limit(), buffer);
+    }
+
+    private boolean hasRemaining() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (channel == null || windowEnd >= size) {
+            return false;
+        }
+        final long windowSize = Math.min(size - windowEnd, WINDOW_SIZE);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, windowSize);
+        windowEnd += windowSize;
+        return true;
+    }
+
+    /**
+     * Advances to the next line that is not a comment.
+     *
+     * @return false if there are no more lines
+     */
+    boolean nextLine() throws IOException {
+        do {
+            if (!hasRemaining()) {
+                return false;
+            }
+            length = 0;
+            while (hasRemaining()) {
+                final byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, 2 * length);
+                }
+                line[length++] = b;
+            }
+        } while (length > 0 && line[0] == 'c');
+
+        tokenize();
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private void tokenize() {
+        numTokens = 0;
+        if (length == 0) {
+            // "".split(...) has one (empty) part
+            addToken(0, 0);
+            return;
+        }
+        int i = 0;
+        if (isWhitespace(line[0])) {
+            // leading whitespace results in an empty first part
+            while (i < length && isWhitespace(line[i])) {
+                i++;
+            }
+            if (i < length) {
+                addToken(0, 0);
+            }
+        }
+        while (i < length) {
+            final int start = i;
+            while (i < length && !isWhitespace(line[i])) {
+                i++;
+            }
+            addToken(start, i);
+            while (i < length && isWhitespace(line[i])) {
+                i++;
+            }
+        }
+    }
+
+    private void addToken(int start, int end) {
+        if (numTokens == tokenStart.length) {
+            tokenStart = Arrays.copyOf(tokenStart, 2 * numTokens);
+            tokenEnd = Arrays.copyOf(tokenEnd, 2 * numTokens);
+        }
+        tokenStart[numTokens] = start;
+        tokenEnd[numTokens] = end;
+        numTokens++;
+    }
+
+    int numTokens() {
+        return numTokens;
+    }
+
+    boolean startsWith(String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses token i like Integer.parseInt.
+     */
+    int intToken(int i) {
+        final int start = tokenStart[i];
+        final int end = tokenEnd[i];
+        int p = start;
+        boolean negative = false;
+        if (p < end && (line[p] == '-' || line[p] == '+')) {
+            negative = line[p] == '-';
+            p++;
+        }
+        if (p == end) {
+            throw numberFormatException(i);
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            final int digit = line[p] - '0';
+            if (digit < 0 || digit > 9) {
+                throw numberFormatException(i);
+            }
+            value = 10 * value + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw numberFormatException(i);
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            throw numberFormatException(i);
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * True if token i equals String.valueOf(value) for a value >= 0.
+     */
+    boolean tokenEquals(int i, int value) {
+        final int start = tokenStart[i];
+        final int end = tokenEnd[i];
+        if (start == end || (line[start] == '0' && end - start > 1)) {
+            return false;
+        }
+        long v = 0;
+        for (int p = start; p < end; p++) {
+            final int digit = line[p] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            v = 10 * v + digit;
+            if (v > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return v == value;
+    }
+
+    private NumberFormatException numberFormatException(int i) {
+        final String token = new String(line, tokenStart[i], tokenEnd[i] - tokenStart[i], StandardCharsets.UTF_8);
+        return new NumberFormatException("For input string: \"" + token + "\"");
+    }
+
+    /**
+     * The current line (for error messages).
+     */
+    String lineString() {
+        int end = length;
+        if (end > 0 && line[end - 1] == '\r') {
+            end--;
+        }
+        return new String(line, 0, end, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package bisection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static bisection.TreeDecomposition.TreeNode;
+
+/**
+ * Generates random partial k-trees together with a tree decomposition of width k.
+ */
+public class RandomKTree {
+
+    /**
+     * @param n               number of vertices (n > k)
+     * @param k               width of the resulting tree decomposition
+     * @param edgeProbability probability that an edge of the k-tree is kept
+     * @param seed            random seed
+     * @return a tree decomposition whose graph field is set to the generated graph
+     */
+    public static TreeDecomposition generate(int n, int k, double edgeProbability, long seed) {
+        if (k < 1 || n <= k) {
+            throw new IllegalArgumentException("expected 0 < k < n");
+        }
+        final Random random = new Random(seed);
+        final Graph graph = new Graph(n);
+        final List<TreeNode> bags = new ArrayList<>(n - k);
+
+        // initial clique {1, ..., k+1}
+        TreeNode root = new TreeNode();
+        root.bag = new int[k + 1];
+        for (int v = 1; v <= k + 1; v++) {
+            root.bag[v - 1] = v;
+            for (int u = 1; u < v; u++) {
+                if (random.nextDouble() < edgeProbability) {
+                    graph.addEdge(u, v);
+                }
+            }
+        }
+        bags.add(root);
+
+        // attach every further vertex to a k-clique of an existing bag
+        for (int v = k + 2; v <= n; v++) {
+            final TreeNode parent = bags.get(random.nextInt(bags.size()));
+            final int dropped = random.nextInt(k + 1);
+            final TreeNode node = new TreeNode();
+            node.bag = new int[k + 1];
+            for (int i = 0, j = 0; i <= k; i++) {
+                if (i == dropped) {
+                    continue;
+                }
+                final int u = parent.bag[i];
+                node.bag[j++] = u;
+                if (random.nextDouble() < edgeProbability) {
+                    graph.addEdge(u, v);
+                }
+            }
+            node.bag[k] = v;
+            Arrays.sort(node.bag);
+            parent.childNodes.add(node);
+            bags.add(node);
+        }
+
+        TreeDecomposition td = new TreeDecomposition();
+        td.graph = graph;
+        td.width = k;
+        td.root = root;
+        return td;
+    }
+}
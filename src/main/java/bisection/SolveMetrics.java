@@ -0,0 +1,194 @@
+package bisection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import static bisection.NiceTreeDecomposition.*;
+
+/**
+ * Timings and table memory of a solve, collected if set as MaxBisection.metrics.
+ * Per node type, per layer (LAYERS schedule) and for the slowest nodes.
+ */
+public class SolveMetrics {
+    public enum NodeType {
+        LEAF, INTRODUCE, FORGET, JOIN;
+
+        static NodeType of(NiceTreeNode node) {
+            if (node instanceof LeafNode) {
+                return LEAF;
+            } else if (node instanceof IntroduceNode) {
+                return INTRODUCE;
+            } else if (node instanceof ForgetNode) {
+                return FORGET;
+            }
+            return JOIN;
+        }
+    }
+
+    public static final class NodeTiming {
+        public final int id;
+        public final NodeType type;
+        public final int bagSize;
+        public final int numForgotten;
+        public final long nanos;
+
+        NodeTiming(NiceTreeNode node, long nanos) {
+            this.id = node.id;
+            this.type = NodeType.of(node);
+            this.bagSize = node.size();
+            this.numForgotten = node.numForgotten;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Number of slowest nodes that are kept.
+     */
+    public int slowest = 10;
+
+    /**
+     * Also emits a JFR event per node (recorded if a flight recording enables "bisection.Node"),
+     * see {@link #jfrSupported()}.
+     */
+    public boolean jfr = false;
+
+    private final LongAdder[] nanos = adders();
+    private final LongAdder[] counts = adders();
+    private final LongAdder tableBytes = new LongAdder();
+    private final List<Long> layerNanos = new ArrayList<>();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final PriorityQueue<NodeTiming> slowestNodes = new PriorityQueue<>(Comparator.comparingLong(t -> t.nanos));
+    // nodes faster than this are not among the slowest
+    private volatile long threshold = 0;
+    private long peakBytes = 0;
+
+    private static LongAdder[] adders() {
+        final LongAdder[] adders = new LongAdder[NodeType.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    void node(NiceTreeNode node, long nanos, long bytes) {
+        final NodeType type = NodeType.of(node);
+        this.nanos[type.ordinal()].add(nanos);
+        counts[type.ordinal()].increment();
+        tableBytes.add(bytes);
+        if (slowest > 0 && nanos >= threshold) {
+            synchronized (slowestNodes) {
+                slowestNodes.add(new NodeTiming(node, nanos));
+                if (slowestNodes.size() > slowest) {
+                    slowestNodes.poll();
+                    threshold = slowestNodes.peek().nanos;
+                }
+            }
+        }
+        if (jfr) {
+            NodeEvent.get().emit(node, type, nanos, bytes);
+        }
+    }
+
+    /**
+     * True if the JVM can emit the JFR events of jfr.
+     */
+    public static boolean jfrSupported() {
+        try {
+            NodeEvent.get();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    synchronized void layer(long nanos) {
+        layerNanos.add(nanos);
+    }
+
+    void peak(long bytes) {
+        peakBytes = Math.max(peakBytes, bytes);
+    }
+
+    /**
+     * Adds the wall time of a phase (e.g. parsing) to the report, phases of the same name are summed up.
+     */
+    public synchronized void phase(String name, long nanos) {
+        phaseNanos.merge(name, nanos, Long::sum);
+    }
+
+    public long nanos(NodeType type) {
+        return nanos[type.ordinal()].sum();
+    }
+
+    public long count(NodeType type) {
+        return counts[type.ordinal()].sum();
+    }
+
+    /**
+     * Bytes of all tables allocated during the solves.
+     */
+    public long tableBytes() {
+        return tableBytes.sum();
+    }
+
+    /**
+     * Maximum bytes of live tables of the solves.
+     */
+    public long peakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Wall time of every layer in the order of evaluation (leaves first), empty for other schedules.
+     */
+    public synchronized List<Long> layerNanos() {
+        return new ArrayList<>(layerNanos);
+    }
+
+    /**
+     * The slowest nodes, slowest first.
+     */
+    public List<NodeTiming> slowestNodes() {
+        final List<NodeTiming> result;
+        synchronized (slowestNodes) {
+            result = new ArrayList<>(slowestNodes);
+        }
+        result.sort(Comparator.comparingLong((NodeTiming t) -> t.nanos).reversed());
+        return result;
+    }
+
+    public synchronized String toJson() {
+        final StringBuilder sb = new StringBuilder("{\n  \"phases\": {");
+        String separator = "";
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            sb.append(separator).append('"').append(phase.getKey()).append("\": ").append(phase.getValue());
+            separator = ", ";
+        }
+        sb.append("},\n  \"nodeTypes\": {");
+        separator = "";
+        for (NodeType type : NodeType.values()) {
+            sb.append(separator).append('"').append(type.name().toLowerCase()).append("\": {\"count\": ")
+                    .append(count(type)).append(", \"nanos\": ").append(nanos(type)).append('}');
+            separator = ", ";
+        }
+        sb.append("},\n  \"tableBytes\": ").append(tableBytes());
+        sb.append(",\n  \"peakBytes\": ").append(peakBytes);
+        sb.append(",\n  \"layerNanos\": ").append(layerNanos);
+        sb.append(",\n  \"slowestNodes\": [");
+        separator = "";
+        for (NodeTiming t : slowestNodes()) {
+            sb.append(separator).append("\n    {\"id\": ").append(t.id)
+                    .append(", \"type\": \"").append(t.type.name().toLowerCase())
+                    .append("\", \"bagSize\": ").append(t.bagSize)
+                    .append(", \"forgotten\": ").append(t.numForgotten)
+                    .append(", \"nanos\": ").append(t.nanos).append('}');
+            separator = ",";
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+}
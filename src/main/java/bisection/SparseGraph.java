@@ -0,0 +1,137 @@
+package bisection;
+
+import java.util.Arrays;
+
+/**
+ * Graph stored in compressed sparse row (CSR) format.
+ * Every edge {u,v} is stored twice (in row u and in row v), columns within a row are sorted.
+ * The edge set is fixed on construction, only the weights of existing edges can be changed.
+ */
+public class SparseGraph extends Graph {
+    // row of vertex v is columns[rowStart[v-1]] ... columns[rowStart[v]-1]
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] weights;
+
+    /**
+     * Creates a graph with the edges {from[i], to[i]} of weight 1.0 each.
+     */
+    public SparseGraph(int numVertices, int[] from, int[] to) {
+        super(numVertices, false);
+        if (from.length != to.length) {
+            throw new IllegalArgumentException("from and to must have the same length");
+        }
+
+        // count entries per row
+        int[] degree = new int[numVertices];
+        for (int i = 0; i < from.length; i++) {
+            checkEdge(from[i], to[i]);
+            degree[from[i] - 1]++;
+            degree[to[i] - 1]++;
+        }
+
+        int[] start = new int[numVertices + 1];
+        for (int v = 0; v < numVertices; v++) {
+            start[v + 1] = start[v] + degree[v];
+        }
+
+        // fill rows
+        int[] cols = new int[start[numVertices]];
+        int[] next = Arrays.copyOf(start, numVertices);
+        for (int i = 0; i < from.length; i++) {
+            cols[next[from[i] - 1]++] = to[i];
+            cols[next[to[i] - 1]++] = from[i];
+        }
+
+        // sort rows & drop duplicate edges
+        int k = 0;
+        for (int v = 0; v < numVertices; v++) {
+            final int rowEnd = start[v + 1];
+            Arrays.sort(cols, start[v], rowEnd);
+            final int rowBegin = k;
+            for (int i = start[v]; i < rowEnd; i++) {
+                if (k == rowBegin || cols[k - 1] != cols[i]) {
+                    cols[k++] = cols[i];
+                }
+            }
+            start[v] = rowBegin;
+        }
+        start[numVertices] = k;
+
+        this.rowStart = start;
+        this.columns = k == cols.length ? cols : Arrays.copyOf(cols, k);
+        this.weights = new double[k];
+        Arrays.fill(this.weights, 1.0);
+    }
+
+    private int find(int u, int v) {
+        return Arrays.binarySearch(columns, rowStart[u - 1], rowStart[u], v);
+    }
+
+    @Override
+    public void setEdgeWeight(int u, int v, double weight) {
+        checkEdge(u, v);
+
+        final int i = find(u, v);
+        if (i < 0) {
+            if (weight == 0.0) {
+                return;
+            }
+            throw new IllegalArgumentException("edge {" + u + "," + v + "} is not part of the sparse graph");
+        }
+        final int j = find(v, u);
+        assert (j >= 0);
+
+        weights[i] = weight;
+        weights[j] = weight;
+        notifyListeners(u, v);
+    }
+
+    @Override
+    public double getEdgeWeight(int u, int v) {
+        assert (u < v);
+        assert (0 < u && v <= vertices);
+        final int i = find(u, v);
+        return i < 0 ? 0.0 : weights[i];
+    }
+
+    @Override
+    public int[] neighbors(int v) {
+        checkVertex(v);
+        int size = 0;
+        final int[] neighbors = new int[rowStart[v] - rowStart[v - 1]];
+        for (int i = rowStart[v - 1]; i < rowStart[v]; i++) {
+            if (weights[i] != 0.0) {
+                neighbors[size++] = columns[i];
+            }
+        }
+        return size == neighbors.length ? neighbors : Arrays.copyOf(neighbors, size);
+    }
+
+    @Override
+    public double absoluteWeight() {
+        double sum = 0.0;
+        for (double w : weights) {
+            sum += Math.abs(w);
+        }
+        // every edge is stored twice
+        return sum / 2;
+    }
+
+    @Override
+    public boolean hasIntegerWeights() {
+        for (double w : weights) {
+            if (w != Math.rint(w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of stored (undirected) edges, including edges of weight 0.
+     */
+    public int numEdges() {
+        return columns.length / 2;
+    }
+}
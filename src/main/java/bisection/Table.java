@@ -0,0 +1,295 @@
+package bisection;
+
+/**
+ * DP table of a node: one row of stride = numForgotten + 1 values for each subset of the bag.
+ * Rows are accessed in bulk, so the kernels work on contiguous local arrays.
+ */
+public abstract class Table {
+    public final int rows;
+    public final int stride;
+
+    Table(int rows, int stride) {
+        this.rows = rows;
+        this.stride = stride;
+    }
+
+    public abstract double get(int s, int l);
+
+    /**
+     * Copies row s into row[0 .. stride-1].
+     */
+    abstract void getRow(int s, double[] row);
+
+    /**
+     * Copies row[0 .. stride-1] into row s, throws an ArithmeticException if a value is not exact in the precision
+     * of an integer table.
+     */
+    abstract void setRow(int s, double[] row);
+
+    /**
+     * Number of bytes used by the values of this table.
+     */
+    public abstract long bytes();
+
+    /**
+     * Number of bytes of this table that live on the Java heap.
+     */
+    public long heapBytes() {
+        return bytes();
+    }
+
+    /**
+     * Number of rows per chunk (log2) such that a chunk holds at most 2^30 values.
+     * rows has to be a power of two.
+     */
+    static int chunkBits(int rows, int stride) {
+        return chunkBits(rows, stride, 30);
+    }
+
+    /**
+     * Number of rows per chunk (log2) such that a chunk holds at most 2^maxBits values.
+     */
+    static int chunkBits(int rows, int stride, int maxBits) {
+        final int strideBits = 32 - Integer.numberOfLeadingZeros(stride - 1);
+        return Math.max(0, Math.min(maxBits - strideBits, Integer.numberOfTrailingZeros(rows)));
+    }
+
+    /**
+     * Value type of heap tables.
+     */
+    public enum Precision {
+        DOUBLE(Double.BYTES),
+        // not exact, weights are rounded to 24 bit mantissa
+        FLOAT(Float.BYTES),
+        // exact for integer weights, Integer.MIN_VALUE represents -Infinity
+        INT(Integer.BYTES),
+        // exact for integer weights, Short.MIN_VALUE represents -Infinity
+        SHORT(Short.BYTES);
+
+        public final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * The smallest precision that represents every DP value of the given graph exactly.
+         * All DP values are cut weights, so they are bounded by the sum of the absolute edge weights.
+         */
+        public static Precision exactFor(Graph graph) {
+            if (!graph.hasIntegerWeights()) {
+                return DOUBLE;
+            }
+            final double bound = graph.absoluteWeight();
+            if (bound < Short.MAX_VALUE) {
+                return SHORT;
+            } else if (bound < Integer.MAX_VALUE) {
+                return INT;
+            }
+            return DOUBLE;
+        }
+
+        Object newArray(int length) {
+            switch (this) {
+                case FLOAT:
+                    return new float[length];
+                case INT:
+                    return new int[length];
+                case SHORT:
+                    return new short[length];
+                default:
+                    return new double[length];
+            }
+        }
+    }
+
+    /**
+     * Table stored in flat arrays with stride-based indexing.
+     * Large tables are split into chunks of 2^chunkBits rows.
+     */
+    abstract static class HeapTable extends Table {
+        final int chunkBits;
+        final int chunkMask;
+        final Precision precision;
+
+        HeapTable(int rows, int stride, Precision precision) {
+            super(rows, stride);
+            this.chunkBits = chunkBits(rows, stride);
+            this.chunkMask = (1 << chunkBits) - 1;
+            this.precision = precision;
+        }
+
+        abstract Object[] chunks();
+
+        final int offset(int s) {
+            return (s & chunkMask) * stride;
+        }
+
+        @Override
+        public long bytes() {
+            return (long) rows * stride * precision.bytes;
+        }
+    }
+
+    static final class DoubleTable extends HeapTable {
+        final double[][] chunks;
+
+        DoubleTable(int rows, int stride, double[][] chunks) {
+            super(rows, stride, Precision.DOUBLE);
+            this.chunks = chunks;
+            assert (chunks.length == rows >>> chunkBits);
+        }
+
+        @Override
+        Object[] chunks() {
+            return chunks;
+        }
+
+        @Override
+        public double get(int s, int l) {
+            return chunks[s >>> chunkBits][offset(s) + l];
+        }
+
+        @Override
+        void getRow(int s, double[] row) {
+            System.arraycopy(chunks[s >>> chunkBits], offset(s), row, 0, stride);
+        }
+
+        @Override
+        void setRow(int s, double[] row) {
+            System.arraycopy(row, 0, chunks[s >>> chunkBits], offset(s), stride);
+        }
+    }
+
+    static final class FloatTable extends HeapTable {
+        final float[][] chunks;
+
+        FloatTable(int rows, int stride, float[][] chunks) {
+            super(rows, stride, Precision.FLOAT);
+            this.chunks = chunks;
+            assert (chunks.length == rows >>> chunkBits);
+        }
+
+        @Override
+        Object[] chunks() {
+            return chunks;
+        }
+
+        @Override
+        public double get(int s, int l) {
+            return chunks[s >>> chunkBits][offset(s) + l];
+        }
+
+        @Override
+        void getRow(int s, double[] row) {
+            final float[] chunk = chunks[s >>> chunkBits];
+            final int offset = offset(s);
+            for (int l = 0; l < stride; l++) {
+                row[l] = chunk[offset + l];
+            }
+        }
+
+        @Override
+        void setRow(int s, double[] row) {
+            final float[] chunk = chunks[s >>> chunkBits];
+            final int offset = offset(s);
+            for (int l = 0; l < stride; l++) {
+                chunk[offset + l] = (float) row[l];
+            }
+        }
+    }
+
+    static final class IntTable extends HeapTable {
+        final int[][] chunks;
+
+        IntTable(int rows, int stride, int[][] chunks) {
+            super(rows, stride, Precision.INT);
+            this.chunks = chunks;
+            assert (chunks.length == rows >>> chunkBits);
+        }
+
+        @Override
+        Object[] chunks() {
+            return chunks;
+        }
+
+        @Override
+        public double get(int s, int l) {
+            final int v = chunks[s >>> chunkBits][offset(s) + l];
+            return v == Integer.MIN_VALUE ? Double.NEGATIVE_INFINITY : v;
+        }
+
+        @Override
+        void getRow(int s, double[] row) {
+            final int[] chunk = chunks[s >>> chunkBits];
+            final int offset = offset(s);
+            for (int l = 0; l < stride; l++) {
+                final int v = chunk[offset + l];
+                row[l] = v == Integer.MIN_VALUE ? Double.NEGATIVE_INFINITY : v;
+            }
+        }
+
+        @Override
+        void setRow(int s, double[] row) {
+            final int[] chunk = chunks[s >>> chunkBits];
+            final int offset = offset(s);
+            for (int l = 0; l < stride; l++) {
+                final double v = row[l];
+                if (v == Double.NEGATIVE_INFINITY) {
+                    chunk[offset + l] = Integer.MIN_VALUE;
+                } else if (v > Integer.MIN_VALUE && v == (int) v) {
+                    chunk[offset + l] = (int) v;
+                } else {
+                    throw new ArithmeticException(v + " is not exact in INT precision");
+                }
+            }
+        }
+    }
+
+    static final class ShortTable extends HeapTable {
+        final short[][] chunks;
+
+        ShortTable(int rows, int stride, short[][] chunks) {
+            super(rows, stride, Precision.SHORT);
+            this.chunks = chunks;
+            assert (chunks.length == rows >>> chunkBits);
+        }
+
+        @Override
+        Object[] chunks() {
+            return chunks;
+        }
+
+        @Override
+        public double get(int s, int l) {
+            final short v = chunks[s >>> chunkBits][offset(s) + l];
+            return v == Short.MIN_VALUE ? Double.NEGATIVE_INFINITY : v;
+        }
+
+        @Override
+        void getRow(int s, double[] row) {
+            final short[] chunk = chunks[s >>> chunkBits];
+            final int offset = offset(s);
+            for (int l = 0; l < stride; l++) {
+                final short v = chunk[offset + l];
+                row[l] = v == Short.MIN_VALUE ? Double.NEGATIVE_INFINITY : v;
+            }
+        }
+
+        @Override
+        void setRow(int s, double[] row) {
+            final short[] chunk = chunks[s >>> chunkBits];
+            final int offset = offset(s);
+            for (int l = 0; l < stride; l++) {
+                final double v = row[l];
+                if (v == Double.NEGATIVE_INFINITY) {
+                    chunk[offset + l] = Short.MIN_VALUE;
+                } else if (v > Short.MIN_VALUE && v == (short) v) {
+                    chunk[offset + l] = (short) v;
+                } else {
+                    throw new ArithmeticException(v + " is not exact in SHORT precision");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package bisection;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static bisection.NiceTreeDecomposition.NiceTreeNode;
+import static bisection.Table.*;
+
+/**
+ * Creates DP tables and reuses the arrays of released tables for tables of the same shape.
+ * Every entry of a table is written by the DP, so reused arrays are not cleared.
+ */
+public class TableAllocator {
+    // free arrays by precision and length
+    private final Map<Long, ArrayDeque<Object>> free = new HashMap<>();
+    private long pooledBytes = 0;
+
+    /**
+     * Value type of heap tables.
+     */
+    public Precision precision = Precision.DOUBLE;
+
+    /**
+     * Maximum number of bytes kept in the pool, released arrays exceeding the limit are dropped.
+     */
+    public long maxPooledBytes;
+
+    /**
+     * Directory for memory-mapped tables, null to keep all tables on the heap.
+     */
+    public Path spillDirectory = null;
+
+    /**
+     * Tables of at least this many bytes are memory-mapped (if spillDirectory is set).
+     */
+    public long mapThreshold = Long.MAX_VALUE;
+
+    public TableAllocator(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public TableAllocator() {
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    Table allocate(NiceTreeNode node) {
+        final int rows = node.numSubsets();
+        final int stride = node.numForgotten + 1;
+        if (spillDirectory != null && TableMemory.bytes(node, precision) >= mapThreshold) {
+            return new MappedTable(spillDirectory, rows, stride, precision);
+        }
+        return allocateOnHeap(rows, stride);
+    }
+
+    private Table allocateOnHeap(int rows, int stride) {
+        final int chunkBits = Table.chunkBits(rows, stride);
+        final int numChunks = rows >>> chunkBits;
+        final int length = stride << chunkBits;
+
+        switch (precision) {
+            case FLOAT: {
+                final float[][] chunks = new float[numChunks][];
+                for (int i = 0; i < numChunks; i++) {
+                    chunks[i] = (float[]) take(precision, length);
+                }
+                return new FloatTable(rows, stride, chunks);
+            }
+            case INT: {
+                final int[][] chunks = new int[numChunks][];
+                for (int i = 0; i < numChunks; i++) {
+                    chunks[i] = (int[]) take(precision, length);
+                }
+                return new IntTable(rows, stride, chunks);
+            }
+            case SHORT: {
+                final short[][] chunks = new short[numChunks][];
+                for (int i = 0; i < numChunks; i++) {
+                    chunks[i] = (short[]) take(precision, length);
+                }
+                return new ShortTable(rows, stride, chunks);
+            }
+            default: {
+                final double[][] chunks = new double[numChunks][];
+                for (int i = 0; i < numChunks; i++) {
+                    chunks[i] = (double[]) take(precision, length);
+                }
+                return new DoubleTable(rows, stride, chunks);
+            }
+        }
+    }
+
+    void release(Table table) {
+        if (table instanceof MappedTable) {
+            ((MappedTable) table).delete();
+        } else {
+            final HeapTable heapTable = (HeapTable) table;
+            final int length = heapTable.stride << heapTable.chunkBits;
+            for (Object chunk : heapTable.chunks()) {
+                put(heapTable.precision, length, chunk);
+            }
+        }
+    }
+
+    /**
+     * Moves a heap table into a memory-mapped file. The heap table is released.
+     * Returns the table itself if it is mapped already or spilling is disabled.
+     */
+    Table spill(Table table) {
+        if (spillDirectory == null || table instanceof MappedTable) {
+            return table;
+        }
+        final MappedTable mapped = new MappedTable(spillDirectory, table.rows, table.stride,
+                ((HeapTable) table).precision);
+        final double[] row = new double[table.stride];
+        for (int s = 0; s < table.rows; s++) {
+            table.getRow(s, row);
+            mapped.setRow(s, row);
+        }
+        release(table);
+        return mapped;
+    }
+
+    private static long key(Precision precision, int length) {
+        return ((long) length << 2) | precision.ordinal();
+    }
+
+    private synchronized Object take(Precision precision, int length) {
+        final ArrayDeque<Object> arrays = free.get(key(precision, length));
+        if (arrays == null || arrays.isEmpty()) {
+            return precision.newArray(length);
+        }
+        pooledBytes -= (long) length * precision.bytes;
+        return arrays.pop();
+    }
+
+    private synchronized void put(Precision precision, int length, Object array) {
+        final long bytes = (long) length * precision.bytes;
+        if (pooledBytes + bytes > maxPooledBytes) {
+            return;
+        }
+        free.computeIfAbsent(key(precision, length), k -> new ArrayDeque<>()).push(array);
+        pooledBytes += bytes;
+    }
+
+    /**
+     * Bytes currently held by the pool.
+     */
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Drops all pooled arrays.
+     */
+    public synchronized void clear() {
+        free.clear();
+        pooledBytes = 0;
+    }
+}
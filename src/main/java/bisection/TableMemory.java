@@ -0,0 +1,51 @@
+package bisection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static bisection.NiceTreeDecomposition.NiceTreeNode;
+
+/**
+ * Keeps track of the heap memory used by live DP tables (and back pointers).
+ */
+public class TableMemory {
+    private final AtomicLong live = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+
+    /**
+     * Size of the DP table of the given node in bytes for the given value precision (ignoring array headers).
+     */
+    public static long bytes(NiceTreeNode node, Table.Precision precision) {
+        return (long) node.numSubsets() * (node.numForgotten + 1) * precision.bytes;
+    }
+
+    void allocate(Table table) {
+        allocate(table.heapBytes());
+    }
+
+    void release(Table table) {
+        release(table.heapBytes());
+    }
+
+    void allocate(long bytes) {
+        final long current = live.addAndGet(bytes);
+        peak.accumulateAndGet(current, Math::max);
+    }
+
+    void release(long bytes) {
+        live.addAndGet(-bytes);
+    }
+
+    /**
+     * Bytes of all tables that are currently alive.
+     */
+    public long live() {
+        return live.get();
+    }
+
+    /**
+     * Maximum number of bytes that were alive at the same time.
+     */
+    public long peak() {
+        return peak.get();
+    }
+}
@@ -1,22 +1,17 @@
 package bisection;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CancellationException;
 
 import static bisection.NiceTreeDecomposition.*;
-import static java.util.Arrays.stream;
 
 public class TreeDecomposition {
     public Graph graph;
     public int width;
     public TreeNode root;
-    private static final Pattern NEWLINE = Pattern.compile("\n");
 
     public static class TreeNode {
         public int[] bag;
@@ -24,201 +19,621 @@ public class TreeDecomposition {
     }
 
     public static TreeDecomposition fromString(String input) {
-        return fromLines(NEWLINE.splitAsStream(input));
+        return fromString(input, 1);
+    }
+
+    /**
+     * Reads a tree decomposition in the PACE format rooted at the given bag (1-based).
+     */
+    public static TreeDecomposition fromString(String input, int rootBag) {
+        try (PaceReader reader = PaceReader.of(input)) {
+            return read(reader, rootBag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static TreeDecomposition fromFile(Path file) throws IOException {
-        try (Stream<String> lineStream = Files.lines(file, Charset.defaultCharset())) {
-            return fromLines(lineStream);
+        return fromFile(file, 1);
+    }
+
+    /**
+     * Reads a tree decomposition in the PACE format rooted at the given bag (1-based).
+     */
+    public static TreeDecomposition fromFile(Path file, int rootBag) throws IOException {
+        try (PaceReader reader = PaceReader.open(file)) {
+            return read(reader, rootBag);
         }
     }
 
-    private static TreeDecomposition fromLines(Stream<String> lineStream) {
-        Iterator<String> lines = lineStream.filter(line -> !line.startsWith("c")).iterator();
-        String firstLine = lines.next();
-        String[] parts = firstLine.split("\\s+");
-        if (!firstLine.startsWith("s td ") || parts.length != 5) {
+    private static TreeDecomposition read(PaceReader reader, int rootBag) throws IOException {
+        if (!reader.nextLine()) {
+            throw new NoSuchElementException();
+        }
+        if (!reader.startsWith("s td ") || reader.numTokens() != 5) {
             throw new IllegalArgumentException("Invalid tree decomposition file");
         }
         TreeDecomposition td = new TreeDecomposition();
-        final int numBags = Integer.parseInt(parts[2], 10);
-        td.width = Integer.parseInt(parts[3], 10) - 1;
-        final int numVertices = Integer.parseInt(parts[4], 10);
+        final int numBags = reader.intToken(2);
+        td.width = reader.intToken(3) - 1;
+        final int numVertices = reader.intToken(4);
+        // every bag takes at least 4 bytes ("b i\n"), more bags cannot be in the input
+        if (numBags < 0 || numBags > (reader.size() + 1) / 4) {
+            throw new IllegalArgumentException("Invalid number of bags " + numBags);
+        }
 
         TreeNode[] nodes = new TreeNode[numBags];
 
         // build bags
         for (int i = 0; i < numBags; i++) {
-            String bagLine = lines.next();
-            parts = bagLine.split("\\s+");
-            if (parts.length < 2 || !String.valueOf(i + 1).equals(parts[1])) {
-                throw new IllegalArgumentException("Invalid bag \"" + bagLine + "\"");
+            if (!reader.nextLine()) {
+                throw new NoSuchElementException();
+            }
+            if (reader.numTokens() < 2 || !reader.tokenEquals(1, i + 1)) {
+                throw new IllegalArgumentException("Invalid bag \"" + reader.lineString() + "\"");
             }
             nodes[i] = new TreeNode();
-            nodes[i].bag = stream(parts).skip(2)
-                    .mapToInt(s -> Integer.parseInt(s, 10))
-                    .sorted()
-                    .toArray();
+            final int[] bag = new int[reader.numTokens() - 2];
+            for (int j = 0; j < bag.length; j++) {
+                bag[j] = reader.intToken(j + 2);
+            }
+            Arrays.sort(bag);
+            nodes[i].bag = bag;
 
             assert (nodes[i].bag.length == 0 || nodes[i].bag[nodes[i].bag.length - 1] <= numVertices);
         }
 
-        boolean[] connectedToRoot = new boolean[numBags];
-        td.root = nodes[0];
-        connectedToRoot[0] = true;
+        if (rootBag < 1 || rootBag > numBags) {
+            throw new IllegalArgumentException("invalid root bag: " + rootBag);
+        }
+
+        // read edges
+        int[] from = new int[Math.max(0, numBags - 1)];
+        int[] to = new int[from.length];
+        int numEdges = 0;
+        while (reader.nextLine()) {
+            if (reader.numTokens() != 2) {
+                throw new IllegalArgumentException("Invalid tree edge \"" + reader.lineString() + "\"");
+            }
+            if (numEdges == from.length) {
+                // more edges than a tree can have, reported below
+                from = Arrays.copyOf(from, 2 * numEdges + 1);
+                to = Arrays.copyOf(to, 2 * numEdges + 1);
+            }
+            from[numEdges] = reader.intToken(0);
+            to[numEdges] = reader.intToken(1);
+            if (from[numEdges] < 1 || from[numEdges] > numBags || to[numEdges] < 1 || to[numEdges] > numBags) {
+                throw new IllegalArgumentException("Invalid tree edge \"" + reader.lineString() + "\"");
+            }
+            numEdges++;
+        }
+
+        td.root = buildTree(nodes, from, to, numEdges, rootBag - 1);
+        return td;
+    }
 
-        EdgeIterator edges = new EdgeIterator(lines);
+    /**
+     * Links the nodes along the given edges (1-based bag indices) by a BFS from the root.
+     */
+    private static TreeNode buildTree(TreeNode[] nodes, int[] from, int[] to, int numEdges, int root) {
+        final int n = nodes.length;
+        if (numEdges != n - 1) {
+            throw new IllegalStateException("This graph is not a tree.");
+        }
 
-        // build tree
-        while (edges.hasNext()) {
-            TreeEdge edge = edges.next();
-            assert (edge.to <= numBags);
+        // adjacency lists in CSR form, edges keep the order of the file
+        final int[] start = new int[n + 1];
+        for (int i = 0; i < numEdges; i++) {
+            start[from[i]]++;
+            start[to[i]]++;
+        }
+        for (int v = 0; v < n; v++) {
+            start[v + 1] += start[v];
+        }
+        final int[] adjacent = new int[2 * numEdges];
+        final int[] next = Arrays.copyOf(start, n);
+        for (int i = 0; i < numEdges; i++) {
+            adjacent[next[from[i] - 1]++] = to[i] - 1;
+            adjacent[next[to[i] - 1]++] = from[i] - 1;
+        }
 
-            if (connectedToRoot[edge.from - 1]) {
-                if (connectedToRoot[edge.to - 1]) {
-                    throw new IllegalStateException("This graph is not a tree.");
+        // BFS
+        final boolean[] visited = new boolean[n];
+        final int[] queue = new int[n];
+        int head = 0, tail = 0;
+        queue[tail++] = root;
+        visited[root] = true;
+        while (head < tail) {
+            final int u = queue[head++];
+            for (int i = start[u]; i < start[u + 1]; i++) {
+                final int v = adjacent[i];
+                if (!visited[v]) {
+                    visited[v] = true;
+                    nodes[u].childNodes.add(nodes[v]);
+                    queue[tail++] = v;
                 }
-                nodes[edge.from - 1].childNodes.add(nodes[edge.to - 1]);
-                connectedToRoot[edge.to - 1] = true;
-            } else if (connectedToRoot[edge.to - 1]) {
-                nodes[edge.to - 1].childNodes.add(nodes[edge.from - 1]);
-                connectedToRoot[edge.from - 1] = true;
-            } else {
-                // can't handle this edge right now, try again later
-                edges.add(edge);
             }
         }
 
-        return td;
+        if (tail != n) {
+            // n - 1 edges but not connected, so there is a cycle
+            throw new IllegalStateException("This graph is not a tree.");
+        }
+
+        return nodes[root];
+    }
+
+    /**
+     * Makes the given node the root of the tree by reversing the edges on its path to the old root.
+     */
+    public void reroot(TreeNode newRoot) {
+        // find the path from the root to newRoot
+        final Map<TreeNode, TreeNode> parents = new IdentityHashMap<>();
+        final Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        parents.put(root, null);
+        while (!stack.isEmpty() && !parents.containsKey(newRoot)) {
+            final TreeNode node = stack.pop();
+            for (TreeNode child : node.childNodes) {
+                parents.put(child, node);
+                stack.push(child);
+            }
+        }
+        if (!parents.containsKey(newRoot)) {
+            throw new IllegalArgumentException("node is not part of this tree decomposition");
+        }
+
+        TreeNode node = newRoot;
+        TreeNode parent = parents.get(node);
+        while (parent != null) {
+            final TreeNode grandParent = parents.get(parent);
+            parent.childNodes.remove(node);
+            node.childNodes.add(parent);
+            node = parent;
+            parent = grandParent;
+        }
+        root = newRoot;
     }
 
     public int countNodes() {
         return countNodes(this.root);
     }
 
-    private int countNodes(TreeNode node) {
-        int n = 1;
-        for (TreeNode child : node.childNodes) {
-            n += countNodes(child);
+    private static int countNodes(TreeNode root) {
+        final Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        int n = 0;
+        while (!stack.isEmpty()) {
+            n++;
+            stack.pop().childNodes.forEach(stack::push);
         }
         return n;
     }
 
-    public NiceTreeDecomposition normalize() {
-        NiceTreeNode root = normalize(this.root);
-        return new NiceTreeDecomposition(this.graph, root);
+    /**
+     * Contracts every bag that is a subset of an adjacent bag into that bag and moves the root
+     * to the bag for which the nice tree decomposition has the smallest cost (see {@link CostModel}).
+     * The cost of bags with more than 256 neighbors is approximated, so on such trees the root is not
+     * guaranteed to be the exact minimum. Throws a CancellationException if the thread is interrupted.
+     */
+    public void optimize() {
+        // flatten the tree, node 0 is the current root
+        final List<TreeNode> nodes = new ArrayList<>();
+        final List<Integer> parentIndex = new ArrayList<>();
+        nodes.add(root);
+        parentIndex.add(-1);
+        for (int i = 0; i < nodes.size(); i++) {
+            for (TreeNode child : nodes.get(i).childNodes) {
+                nodes.add(child);
+                parentIndex.add(i);
+            }
+        }
+        final int n = nodes.size();
+        final int[][] bags = new int[n][];
+        final int[] degree = new int[n];
+        for (int i = 0; i < n; i++) {
+            bags[i] = sorted(nodes.get(i).bag);
+            if (i > 0) {
+                degree[i]++;
+                degree[parentIndex.get(i)]++;
+            }
+        }
+        final int[][] adjacent = new int[n][];
+        for (int i = 0; i < n; i++) {
+            adjacent[i] = new int[degree[i]];
+            degree[i] = 0;
+        }
+        for (int i = 1; i < n; i++) {
+            final int p = parentIndex.get(i);
+            adjacent[i][degree[i]++] = p;
+            adjacent[p][degree[p]++] = i;
+        }
+
+        final boolean[] removed = contractRedundantBags(bags, adjacent, degree);
+        int first = 0;
+        while (removed[first]) {
+            first++;
+        }
+        final int newRoot = cheapestRoot(bags, adjacent, degree, first);
+
+        // rebuild the tree from the new root
+        for (TreeNode node : nodes) {
+            node.childNodes.clear();
+        }
+        final boolean[] visited = new boolean[n];
+        final int[] queue = new int[n];
+        int head = 0, tail = 0;
+        queue[tail++] = newRoot;
+        visited[newRoot] = true;
+        while (head < tail) {
+            final int u = queue[head++];
+            for (int i = 0; i < degree[u]; i++) {
+                final int v = adjacent[u][i];
+                if (!visited[v]) {
+                    visited[v] = true;
+                    nodes.get(u).childNodes.add(nodes.get(v));
+                    queue[tail++] = v;
+                }
+            }
+        }
+        root = nodes.get(newRoot);
     }
 
-    private static NiceTreeNode normalize(TreeNode root) {
-        assert (root != null);
-        final int numChildNodes = root.childNodes.size();
-
-        if (numChildNodes == 0) {
-            return new LeafNode(root.bag);
-        } else if (numChildNodes == 1) {
-            return bridge(root, normalize(root.childNodes.get(0)));
-        } else {
-            List<NiceTreeNode> nodes = root.childNodes.stream()
-                    .map(TreeDecomposition::normalize)
-                    .map(n -> bridge(root, n))
-                    .collect(Collectors.toList());
-
-            while (nodes.size() > 2) {
-                List<NiceTreeNode> parents = new ArrayList<>((nodes.size() + 1) / 2);
-                int i;
-                for (i = 0; i + 1 < nodes.size(); i += 2) {
-                    final NiceTreeNode left = nodes.get(i);
-                    final NiceTreeNode right = nodes.get(i + 1);
-                    parents.add(new JoinNode(left, right));
+    /**
+     * Merges bags into an adjacent superset until no bag is contained in a neighbor.
+     * Updates the adjacency lists in place and returns which bags were removed.
+     */
+    private static boolean[] contractRedundantBags(int[][] bags, int[][] adjacent, int[] degree) {
+        final int n = bags.length;
+        final boolean[] removed = new boolean[n];
+        final Deque<Integer> queue = new ArrayDeque<>(n);
+        for (int i = 0; i < n; i++) {
+            queue.add(i);
+        }
+        while (!queue.isEmpty()) {
+            checkInterrupted();
+            final int u = queue.poll();
+            if (removed[u]) {
+                continue;
+            }
+            for (int i = 0; i < degree[u]; i++) {
+                final int v = adjacent[u][i];
+                if (!isSubset(bags[u], bags[v])) {
+                    continue;
                 }
-                if (i < nodes.size()) {
-                    // add last remaining node
-                    parents.add(nodes.get(nodes.size() - 1));
+                // merge u into v
+                removed[u] = true;
+                removeAdjacent(adjacent, degree, v, u);
+                for (int j = 0; j < degree[u]; j++) {
+                    final int w = adjacent[u][j];
+                    if (w == v) {
+                        continue;
+                    }
+                    replaceAdjacent(adjacent, degree, w, u, v);
+                    if (degree[v] == adjacent[v].length) {
+                        adjacent[v] = Arrays.copyOf(adjacent[v], 2 * degree[v] + 1);
+                    }
+                    adjacent[v][degree[v]++] = w;
+                    queue.add(w);
                 }
-                nodes = parents;
+                degree[u] = 0;
+                queue.add(v);
+                break;
             }
-
-            return new JoinNode(nodes.get(0), nodes.get(1));
         }
+        return removed;
     }
 
-    private static NiceTreeNode bridge(TreeNode parent, NiceTreeNode child) {
-        final Set<Integer> ps = Arrays.stream(parent.bag).boxed().collect(Collectors.toSet());
-        final Set<Integer> cs = Arrays.stream(child.bag).boxed().collect(Collectors.toSet());
-
-        Set<Integer> forget = new HashSet<>(cs);
-        forget.removeAll(ps);
-        Set<Integer> introduce = new HashSet<>(ps);
-        introduce.removeAll(cs);
+    private static void removeAdjacent(int[][] adjacent, int[] degree, int u, int v) {
+        for (int i = 0; i < degree[u]; i++) {
+            if (adjacent[u][i] == v) {
+                adjacent[u][i] = adjacent[u][--degree[u]];
+                return;
+            }
+        }
+    }
 
-        NiceTreeNode node = child;
+    private static void replaceAdjacent(int[][] adjacent, int[] degree, int u, int v, int w) {
+        for (int i = 0; i < degree[u]; i++) {
+            if (adjacent[u][i] == v) {
+                adjacent[u][i] = w;
+                return;
+            }
+        }
+    }
 
-        // forget vertices
-        for (Integer vertex : forget) {
-            node = new ForgetNode(node, vertex);
+    /**
+     * Finds the root with the smallest cost. The forget and introduce chain of a tree edge only depends on its
+     * direction, so the costs of all roots follow from the cost of one root by moving the root along the edges.
+     * The costs are exact unless a bag has more than 256 neighbors, see nodeCost.
+     *
+     * @param first any node that was not removed, it is kept on ties
+     */
+    private static int cheapestRoot(int[][] bags, int[][] adjacent, int[] degree, int first) {
+        final int n = bags.length;
+
+        // DFS order from the first node
+        final int[] order = new int[n];
+        final int[] parent = new int[n];
+        final int[] parentEdge = new int[n];
+        int size = 0;
+        final int[] stack = new int[n];
+        int top = 0;
+        stack[top++] = first;
+        parent[first] = -1;
+        parentEdge[first] = -1;
+        while (top > 0) {
+            final int u = stack[--top];
+            order[size++] = u;
+            for (int i = 0; i < degree[u]; i++) {
+                final int v = adjacent[u][i];
+                if (v != parent[u]) {
+                    parent[v] = u;
+                    stack[top++] = v;
+                }
+            }
+        }
+        for (int k = 1; k < size; k++) {
+            final int u = order[k];
+            for (int i = 0; i < degree[u]; i++) {
+                if (adjacent[u][i] == parent[u]) {
+                    parentEdge[u] = i;
+                }
+            }
         }
 
-        // introduce vertices
-        for (Integer vertex : introduce) {
-            node = new IntroduceNode(node, vertex);
+        // number of vertices in any bag
+        int maxVertex = 0;
+        for (int k = 0; k < size; k++) {
+            for (int v : bags[order[k]]) {
+                maxVertex = Math.max(maxVertex, v);
+            }
+        }
+        final boolean[] seen = new boolean[maxVertex + 1];
+        long numVertices = 0;
+        for (int k = 0; k < size; k++) {
+            for (int v : bags[order[k]]) {
+                if (!seen[v]) {
+                    seen[v] = true;
+                    numVertices++;
+                }
+            }
         }
 
-        assert (node.bag.length == parent.bag.length);
+        // forgotten[u][i]: vertices forgotten on the side of adjacent[u][i] when reaching u from there
+        final long[][] forgotten = new long[n][];
+        final double[][] bridge = new double[n][];
+        for (int k = 0; k < size; k++) {
+            final int u = order[k];
+            forgotten[u] = new long[degree[u]];
+            bridge[u] = new double[degree[u]];
+        }
+        for (int k = size - 1; k > 0; k--) {
+            final int u = order[k];
+            final int p = parent[u];
+            long below = 0;
+            for (int i = 0; i < degree[u]; i++) {
+                if (i != parentEdge[u]) {
+                    below += forgotten[u][i];
+                }
+            }
+            final int common = intersectionSize(bags[u], bags[p]);
+            final int j = indexOf(adjacent[p], degree[p], u);
+            forgotten[p][j] = below + bags[u].length - common;
+            bridge[p][j] = CostModel.bridgeCost(bags[u].length, common, bags[p].length, below);
+        }
+        for (int k = 1; k < size; k++) {
+            final int u = order[k];
+            final int p = parent[u];
+            final int common = intersectionSize(bags[u], bags[p]);
+            final int j = indexOf(adjacent[p], degree[p], u);
+            final long above = numVertices - forgotten[p][j] - common - (bags[p].length - common);
+            forgotten[u][parentEdge[u]] = above + bags[p].length - common;
+            bridge[u][parentEdge[u]] = CostModel.bridgeCost(bags[p].length, common, bags[u].length, above);
+        }
 
-        return node;
+        // cost of the first root, then move the root along the DFS tree
+        final double[] cost = new double[n];
+        double total = 0.0;
+        for (int k = 0; k < size; k++) {
+            final int u = order[k];
+            total += nodeCost(bags[u].length, forgotten[u], bridge[u], degree[u], k == 0 ? -1 : parentEdge[u]);
+        }
+        cost[first] = total;
+        int best = first;
+        for (int k = 1; k < size; k++) {
+            final int u = order[k];
+            final int p = parent[u];
+            final int j = indexOf(adjacent[p], degree[p], u);
+            cost[u] = cost[p]
+                    - nodeCost(bags[p].length, forgotten[p], bridge[p], degree[p], -1)
+                    + nodeCost(bags[p].length, forgotten[p], bridge[p], degree[p], j)
+                    - nodeCost(bags[u].length, forgotten[u], bridge[u], degree[u], parentEdge[u])
+                    + nodeCost(bags[u].length, forgotten[u], bridge[u], degree[u], -1);
+            if (cost[u] < cost[best]) {
+                best = u;
+            }
+        }
+        return best;
     }
 
-    private static class EdgeIterator implements Iterator<TreeEdge> {
+    /**
+     * Cost of a node and the chains from its children, where all adjacent nodes but the one at index
+     * parentEdge are children. Above 256 neighbors the joins are ordered as if the parent were a child too and
+     * the last join is subtracted. This is a lower bound of the cost, since the optimal joins of the children
+     * followed by a join with the parent branch are one possible order of all branches. The exact join order
+     * of every neighbor as parent would take quadratic time in the degree.
+     */
+    private static double nodeCost(int bagSize, long[] forgotten, double[] bridge, int degree, int parentEdge) {
+        final int numChildren = parentEdge < 0 ? degree : degree - 1;
+        if (numChildren == 0) {
+            return CostModel.tableSize(bagSize, 0);
+        }
+        double cost = 0.0;
+        final long[] branches = new long[degree];
+        int numBranches = 0;
+        for (int i = 0; i < degree; i++) {
+            if (i != parentEdge) {
+                cost += bridge[i];
+                branches[numBranches++] = forgotten[i];
+            }
+        }
+        if (degree > 256 && parentEdge >= 0) {
+            // approximation, keeps moving the root along all edges linear in the number of bags
+            branches[numBranches++] = forgotten[parentEdge];
+            return cost + CostModel.joinCost(bagSize, branches, numBranches)
+                    - CostModel.tableSize(bagSize, sum(branches, numBranches));
+        }
+        return cost + CostModel.joinCost(bagSize, branches, numBranches);
+    }
 
-        private Iterator<String> lines;
-        private List<TreeEdge> moreLines = new LinkedList<>();
+    private static long sum(long[] values, int length) {
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
 
-        EdgeIterator(Iterator<String> lines) {
-            assert (lines != null);
-            this.lines = lines;
+    /**
+     * Throws a CancellationException if the current thread is interrupted, long steps check it regularly.
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("interrupted");
         }
+    }
 
-        @Override
-        public boolean hasNext() {
-            if (lines.hasNext()) {
-                return true;
-            } else {
-                return moreLines.size() > 0;
+    private static int indexOf(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return i;
             }
         }
+        throw new IllegalStateException();
+    }
 
-        @Override
-        public TreeEdge next() {
-            if (lines.hasNext()) {
-                return new TreeEdge(lines.next());
-            } else {
-                return moreLines.remove(0);
+    /**
+     * Builds the nice tree decomposition, throws a CancellationException if the thread is interrupted.
+     */
+    public NiceTreeDecomposition normalize() {
+        NiceTreeNode root = normalize(this.root);
+        return new NiceTreeDecomposition(this.graph, root);
+    }
+
+    /**
+     * Builds the nice tree decomposition bottom-up. The branches of a node are joined in
+     * Huffman order (fewest forgotten vertices first), which minimizes the size of the join tables.
+     */
+    private static NiceTreeNode normalize(TreeNode root) {
+        assert (root != null);
+
+        // post-order without recursion, deep trees would overflow the stack
+        final List<TreeNode> order = new ArrayList<>();
+        final Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            final TreeNode node = stack.pop();
+            order.add(node);
+            node.childNodes.forEach(stack::push);
+        }
+        Collections.reverse(order);
+
+        final Map<TreeNode, NiceTreeNode> normalized = new IdentityHashMap<>();
+        final Comparator<NiceTreeNode> huffman = Comparator
+                .comparingInt((NiceTreeNode n) -> n.numForgotten)
+                .thenComparingInt(n -> n.id);
+        for (TreeNode node : order) {
+            checkInterrupted();
+            if (node.childNodes.isEmpty()) {
+                normalized.put(node, new LeafNode(node.bag));
+                continue;
             }
+            final int[] bag = sorted(node.bag);
+            final PriorityQueue<NiceTreeNode> branches = new PriorityQueue<>(node.childNodes.size(), huffman);
+            for (TreeNode child : node.childNodes) {
+                branches.add(bridge(bag, normalized.remove(child)));
+            }
+            while (branches.size() > 1) {
+                branches.add(new JoinNode(branches.poll(), branches.poll()));
+            }
+            normalized.put(node, branches.poll());
+        }
+
+        return normalized.get(root);
+    }
+
+    /**
+     * Connects a child to the bag of its parent. All vertices are forgotten before any is introduced,
+     * so every table on the chain is as small as possible (see {@link CostModel#bridgeCost}): a forget
+     * halves the number of subsets and adds one column, an introduce doubles the number of subsets.
+     * The order within each group does not change any table size, vertices are taken in ascending
+     * order to keep the decomposition deterministic.
+     */
+    private static NiceTreeNode bridge(int[] parentBag, NiceTreeNode child) {
+        NiceTreeNode node = child;
+
+        // forget vertices
+        for (int vertex : difference(child.bag, parentBag)) {
+            node = new ForgetNode(node, vertex);
         }
 
-        public void add(TreeEdge edge) {
-            moreLines.add(edge);
+        // introduce vertices
+        for (int vertex : difference(parentBag, child.bag)) {
+            node = new IntroduceNode(node, vertex);
         }
+
+        assert (node.bag.length == parentBag.length);
+
+        return node;
     }
 
-    private static class TreeEdge {
-        int from;
-        int to;
+    private static int[] sorted(int[] bag) {
+        for (int i = 1; i < bag.length; i++) {
+            if (bag[i - 1] > bag[i]) {
+                final int[] copy = bag.clone();
+                Arrays.sort(copy);
+                return copy;
+            }
+        }
+        return bag;
+    }
 
-        TreeEdge(String edgeLine) {
-            String[] parts = edgeLine.split("\\s+");
-            if (parts.length != 2) {
-                throw new IllegalArgumentException("Invalid tree edge \"" + edgeLine + "\"");
+    /**
+     * Elements of the sorted array a that are not in the sorted array b.
+     */
+    static int[] difference(int[] a, int[] b) {
+        final int[] result = new int[a.length];
+        int size = 0;
+        int j = 0;
+        for (int v : a) {
+            while (j < b.length && b[j] < v) {
+                j++;
+            }
+            if (j == b.length || b[j] != v) {
+                result[size++] = v;
             }
-            from = Integer.parseInt(parts[0], 10);
-            to = Integer.parseInt(parts[1], 10);
-            assert (0 < from && from < to);
         }
+        return size == a.length ? result : Arrays.copyOf(result, size);
+    }
 
-        void swap() {
-            int tmp = from;
-            from = to;
-            to = tmp;
+    static int intersectionSize(int[] a, int[] b) {
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                size++;
+                i++;
+                j++;
+            }
         }
+        return size;
+    }
+
+    static boolean isSubset(int[] a, int[] b) {
+        return a.length <= b.length && intersectionSize(a, b) == a.length;
     }
 }
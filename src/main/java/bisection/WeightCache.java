@@ -0,0 +1,174 @@
+package bisection;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Least recently used cut-weight arrays of leaf, join and introduce nodes, keyed by the bag contents.
+ * Join nodes share the bag of their children and normalize() creates long chains of joins with the same bag,
+ * so most of these arrays are needed more than once. A cache may be shared by several solves, entries of
+ * other graphs or of older edge weights are never returned. Graphs are only referenced weakly, entries of
+ * older edge weights are removed once a newer version of the graph is cached and entries of collected graphs
+ * on the next insertion.
+ */
+public class WeightCache {
+    private final long maxBytes;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private final LinkedHashMap<Key, double[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // newest cached version of every graph
+    private final Map<Graph, Long> versions = new WeakHashMap<>();
+    // references of the stored keys whose graph was collected
+    private final ReferenceQueue<Graph> collected = new ReferenceQueue<>();
+
+    /**
+     * @param maxBytes bytes of cached arrays, least recently used arrays are evicted beyond
+     */
+    public WeightCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must be >= 0");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    private static final class Key {
+        // the graph of a lookup, null for stored keys
+        final Graph graph;
+        // the graph of a stored key
+        final WeakReference<Graph> reference;
+        final boolean negated;
+        final long version;
+        final int[] bag;
+        // new vertex of an introduce node, 0 for leaf and join nodes
+        final int introduced;
+        final int hash;
+
+        Key(Graph graph, int[] bag, int introduced) {
+            this.negated = graph instanceof NegatedGraph;
+            this.graph = negated ? ((NegatedGraph) graph).graph : graph;
+            this.reference = null;
+            this.version = graph.version();
+            this.bag = bag;
+            this.introduced = introduced;
+            this.hash = (System.identityHashCode(this.graph) * 31 + Arrays.hashCode(bag)) * 31 + introduced;
+        }
+
+        // stored copy of a lookup key
+        Key(Key key, ReferenceQueue<Graph> queue) {
+            this.graph = null;
+            this.reference = new WeakReference<>(key.graph, queue);
+            this.negated = key.negated;
+            this.version = key.version;
+            this.bag = key.bag;
+            this.introduced = key.introduced;
+            this.hash = key.hash;
+        }
+
+        Graph graph() {
+            return graph != null ? graph : reference.get();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            final Graph graph = graph();
+            return graph != null && graph == key.graph() && negated == key.negated && version == key.version
+                    && introduced == key.introduced && Arrays.equals(bag, key.bag);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Cached array of the given bag (and introduced vertex), computed if missing. The array must not be modified.
+     */
+    double[] get(Graph graph, int[] bag, int introduced, Supplier<double[]> compute) {
+        final Key key = new Key(graph, bag, introduced);
+        synchronized (this) {
+            final double[] cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        // computed outside the lock, concurrent misses of the same key compute it twice
+        final double[] weights = compute.get();
+        final long size = (long) weights.length * Double.BYTES;
+        if (size > maxBytes) {
+            return weights;
+        }
+        synchronized (this) {
+            removeStale(key);
+            final Long newest = versions.get(key.graph);
+            if (newest != null && newest > key.version) {
+                // weights of an older version are not needed again
+                return weights;
+            }
+            versions.put(key.graph, key.version);
+            if (entries.put(new Key(key, collected), weights) == null) {
+                bytes += size;
+            }
+            final Iterator<double[]> eldest = entries.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= (long) eldest.next().length * Double.BYTES;
+                eldest.remove();
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Removes the entries of collected graphs and of versions of the key's graph older than the key.
+     */
+    private void removeStale(Key key) {
+        boolean cleared = false;
+        while (collected.poll() != null) {
+            cleared = true;
+        }
+        final Long newest = versions.get(key.graph);
+        if (!cleared && (newest == null || newest >= key.version)) {
+            return;
+        }
+        final Iterator<Map.Entry<Key, double[]>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, double[]> entry = it.next();
+            final Graph graph = entry.getKey().graph();
+            if (graph == null || (graph == key.graph && entry.getKey().version < key.version)) {
+                bytes -= (long) entry.getValue().length * Double.BYTES;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        versions.clear();
+        bytes = 0;
+    }
+}
@@ -30,8 +30,8 @@ public class Visualizer {
 
         SingleGraph dt = new SingleGraph("Tree Decomposition");
 
-        for (int l = td.layers.size() - 1; l >= 0; l--) {
-            List<NiceTreeDecomposition.NiceTreeNode> layer = td.layers.get(l);
+        for (int l = td.layers().size() - 1; l >= 0; l--) {
+            List<NiceTreeDecomposition.NiceTreeNode> layer = td.layers().get(l);
             for (NiceTreeDecomposition.NiceTreeNode node : layer) {
                 String label = node.toString();
                 if (node == td.treeRoot) {
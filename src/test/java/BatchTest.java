@@ -0,0 +1,164 @@
+import bisection.Graph;
+import bisection.MaxBisection;
+import bisection.NiceTreeDecomposition;
+import bisection.RandomKTree;
+import org.apache.commons.cli.CommandLine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchTest {
+    @TempDir
+    Path dir;
+
+    private Path writeGraph(String name, Graph graph) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        int edges = 0;
+        for (int u = 1; u <= graph.vertices; u++) {
+            for (int v : graph.neighbors(u)) {
+                if (u < v) {
+                    sb.append(u).append(' ').append(v).append('\n');
+                    edges++;
+                }
+            }
+        }
+        final Path file = dir.resolve(name);
+        Files.write(file, ("p tw " + graph.vertices + " " + edges + "\n" + sb).getBytes());
+        return file;
+    }
+
+    @Test
+    void testManifest() throws Exception {
+        Files.write(dir.resolve("list.txt"), Arrays.asList("# graphs", "", "a,1.gr a.td", "  b.gr  "));
+        List<Batch.Instance> instances = Batch.instances(dir.resolve("list.txt"));
+        assertEquals(2, instances.size());
+        assertEquals("a_1", instances.get(0).name);
+        assertEquals(dir.resolve("a,1.gr").toAbsolutePath(), instances.get(0).graph);
+        assertEquals(dir.resolve("a.td").toAbsolutePath(), instances.get(0).td);
+        assertEquals("b", instances.get(1).name);
+        assertNull(instances.get(1).td);
+
+        Files.write(dir.resolve("bad.txt"), Collections.singletonList("a.gr a.td c.td"));
+        assertThrows(IllegalArgumentException.class, () -> Batch.instances(dir.resolve("bad.txt")));
+    }
+
+    @Test
+    void testGraphs() throws Exception {
+        Path shared = writeGraph("shared.gr", RandomKTree.generate(10, 2, 0.5, 1).graph);
+        Path single = writeGraph("single.gr", RandomKTree.generate(10, 2, 0.5, 2).graph);
+        Batch.Graphs graphs = new Batch.Graphs(Arrays.asList(
+                new Batch.Instance(shared, null), new Batch.Instance(single, null),
+                new Batch.Instance(shared, null)), false);
+
+        Graph first = graphs.acquire(shared);
+        assertSame(first, graphs.acquire(shared));
+        graphs.release(shared);
+        graphs.release(shared);
+        // no instance uses it any more
+        assertNotSame(first, graphs.acquire(shared));
+        graphs.release(shared);
+
+        assertEquals(10, graphs.acquire(single).vertices);
+        graphs.release(single);
+
+        // concurrent workers share one load, a failed load is retried by the next one
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Graph> a = executor.submit(() -> graphs.acquire(shared));
+            Future<Graph> b = executor.submit(() -> graphs.acquire(shared));
+            assertSame(a.get(), b.get());
+        } finally {
+            executor.shutdown();
+        }
+        Path missing = dir.resolve("missing.gr");
+        Batch.Graphs failing = new Batch.Graphs(Arrays.asList(
+                new Batch.Instance(missing, null), new Batch.Instance(missing, null)), false);
+        assertThrows(IOException.class, () -> failing.acquire(missing));
+        writeGraph("missing.gr", RandomKTree.generate(10, 2, 0.5, 3).graph);
+        assertEquals(10, failing.acquire(missing).vertices);
+    }
+
+    @Test
+    void testRun() throws Exception {
+        NiceTreeDecomposition ntd = RandomKTree.generate(30, 3, 0.5, 3).normalize();
+        Path file = writeGraph("small.gr", ntd.graph);
+        CommandLine cl = App.parse("--weight-cache", "0");
+        List<Batch.Instance> instances = Arrays.asList(new Batch.Instance(file, null), new Batch.Instance(file, null));
+
+        List<Batch.Result> results = Batch.run(instances, cl, 2, Long.MAX_VALUE, Long.MAX_VALUE);
+        for (Batch.Result result : results) {
+            assertEquals("ok", result.status);
+            assertEquals(MaxBisection.compute(ntd), result.size);
+            assertEquals(30, result.vertices);
+        }
+
+        Batch.Result memory = Batch.run(instances.subList(0, 1), cl, 1, Long.MAX_VALUE, 1).get(0);
+        assertEquals("memory", memory.status);
+        // the cap holds for every schedule
+        for (MaxBisection.Schedule schedule : MaxBisection.Schedule.values()) {
+            CommandLine scheduled = App.parse("--weight-cache", "0", "--schedule", schedule.name());
+            assertEquals("memory", Batch.run(instances.subList(0, 1), scheduled, 1, Long.MAX_VALUE, 1).get(0).status);
+        }
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        Path file = writeGraph("large.gr", RandomKTree.generate(400, 14, 0.5, 4).graph);
+        CommandLine cl = App.parse("--weight-cache", "0");
+        List<Batch.Instance> instances = Arrays.asList(new Batch.Instance(file, null), new Batch.Instance(file, null));
+
+        final long start = System.currentTimeMillis();
+        List<Batch.Result> results = Batch.run(instances, cl, 1, 50, Long.MAX_VALUE);
+        assertTrue(System.currentTimeMillis() - start < 10_000);
+        for (Batch.Result result : results) {
+            assertEquals("timeout", result.status);
+        }
+    }
+
+    @Test
+    void testOutput() {
+        Batch.Result ok = new Batch.Result("ok");
+        ok.treewidth = 2;
+        ok.vertices = 7;
+        ok.tdBags = 5;
+        ok.ntdBags = 20;
+        ok.time = 12;
+        ok.size = 6.0;
+        Batch.Result infeasible = new Batch.Result("infeasible");
+        infeasible.size = Double.NEGATIVE_INFINITY;
+        Batch.Result timeout = new Batch.Result("slow");
+        timeout.status = "timeout";
+        Batch.Result memory = new Batch.Result("big");
+        memory.status = "memory";
+        memory.message = "estimated 12MB";
+        List<Batch.Result> results = Arrays.asList(ok, infeasible, timeout, memory);
+
+        StringWriter csv = new StringWriter();
+        Batch.writeCsv(results, csv);
+        String[] lines = csv.toString().split("\\R");
+        assertEquals(Batch.HEADER, lines[0]);
+        assertEquals("ok, 2, 7, 5, 20, 12ms, 6.0", lines[1]);
+        assertEquals("# timeout: (slow)", lines[3]);
+        assertEquals("# memory: (big) estimated 12MB", lines[4]);
+
+        StringWriter json = new StringWriter();
+        Batch.writeJson(results, json);
+        String[] objects = json.toString().split("\\R");
+        assertEquals("  {\"filename\": \"ok\", \"status\": \"ok\", \"treewidth\": 2, \"vertices\": 7, \"tdBags\": 5,"
+                + " \"ntdBags\": 20, \"timeMillis\": 12, \"bisectionSize\": 6.0},", objects[1]);
+        assertTrue(objects[2].endsWith("\"bisectionSize\": null},"));
+        assertEquals("  {\"filename\": \"big\", \"status\": \"memory\", \"message\": \"estimated 12MB\"}", objects[4]);
+    }
+}
@@ -0,0 +1,216 @@
+import bisection.Graph;
+import bisection.MaxBisection;
+import bisection.NiceTreeDecomposition;
+import bisection.RandomKTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerTest {
+    private static final String GRAPH = "p tw 6 7\n1 2\n2 3\n1 3\n3 4\n4 5\n5 6\n4 6\n";
+
+    @TempDir
+    Path dir;
+
+    private Server server;
+    private ServerSocket socket;
+
+    @BeforeEach
+    void start() throws Exception {
+        Files.createDirectory(dir.resolve("data"));
+        Files.write(dir.resolve("data").resolve("g.gr"), GRAPH.getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("outside.gr"), GRAPH.getBytes(StandardCharsets.UTF_8));
+        server = new Server(App.parse("--data-dir", dir.resolve("data").toString(), "--max-payload", "1",
+                "--weight-cache", "0"), 2, 1L << 30);
+        socket = Server.bind(0);
+        final Thread thread = new Thread(() -> {
+            try {
+                server.serve(socket);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        socket.close();
+        server.shutdown();
+    }
+
+    private static final class Client implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+        }
+
+        String request(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return in.readLine();
+        }
+
+        String upload(String command, String name, String content) throws IOException {
+            final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            out.write((command + " " + name + " " + bytes.length + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.flush();
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    void testRequests() throws Exception {
+        final double expected = MaxBisection.compute(new NiceTreeDecomposition(Graph.fromString(GRAPH)));
+        try (Client client = new Client(socket.getLocalPort())) {
+            assertEquals("OK", client.upload("GRAPH", "g", GRAPH));
+            String solved = client.request("SOLVE g");
+            assertTrue(solved.startsWith("OK size=" + expected + " "), solved);
+            assertTrue(client.request("SOLVE g objective=min imbalance=0.5").startsWith("OK size="));
+            assertTrue(client.request("STATS").startsWith("OK graphs=1 decompositions=0 prepared=1 "));
+
+            assertEquals("OK", client.request("DROP g"));
+            assertEquals("ERROR unknown graph g", client.request("SOLVE g"));
+            assertEquals("ERROR unknown name g", client.request("DROP g"));
+            assertEquals("ERROR unknown command FOO", client.request("FOO bar"));
+            assertTrue(client.request("SOLVE").startsWith("ERROR "));
+
+            assertEquals("OK", client.request("GRAPH f FILE g.gr"));
+            assertTrue(client.request("SOLVE f").startsWith("OK size=" + expected + " "));
+            assertEquals("ERROR cannot read ../outside.gr", client.request("GRAPH h FILE ../outside.gr"));
+            assertEquals("ERROR cannot read " + dir.resolve("outside.gr"),
+                    client.request("GRAPH h FILE " + dir.resolve("outside.gr")));
+            assertNull(client.request("QUIT"));
+        }
+    }
+
+    @Test
+    void testInvalidPayload() throws Exception {
+        try (Client client = new Client(socket.getLocalPort())) {
+            assertEquals("ERROR upload length must be between 0 and 1048576 bytes", client.request("GRAPH g -5"));
+            // the connection is closed
+            assertNull(client.in.readLine());
+        }
+        try (Client client = new Client(socket.getLocalPort())) {
+            assertEquals("ERROR upload length must be between 0 and 1048576 bytes", client.request("GRAPH g 1048577"));
+            assertNull(client.in.readLine());
+        }
+        try (Client client = new Client(socket.getLocalPort())) {
+            assertEquals("ERROR invalid upload length x", client.request("TD t x"));
+            assertNull(client.in.readLine());
+        }
+        // other connections are not affected
+        try (Client client = new Client(socket.getLocalPort())) {
+            assertEquals("OK", client.upload("GRAPH", "g", GRAPH));
+        }
+    }
+
+    @Test
+    void testGraphHeader() throws Exception {
+        try (Client client = new Client(socket.getLocalPort())) {
+            // the matrix does not fit into the budget, the graph is stored sparse
+            assertEquals("OK", client.upload("GRAPH", "wide", "p tw 200000 0\n"));
+            assertEquals("ERROR a graph with 2000000000 vertices and 0 edges exceeds the memory budget of 1024MB",
+                    client.upload("GRAPH", "huge", "p tw 2000000000 0\n"));
+            assertEquals("ERROR Invalid number of edges 1000000", client.upload("GRAPH", "g", "p tw 6 1000000\n1 2\n"));
+            assertTrue(client.request("STATS").startsWith("OK graphs=1 "));
+        }
+    }
+
+    @Test
+    void testLongLine() throws Exception {
+        try (Client client = new Client(socket.getLocalPort())) {
+            final StringBuilder line = new StringBuilder();
+            for (int i = 0; i <= Server.MAX_LINE; i++) {
+                line.append('x');
+            }
+            client.out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            client.out.flush();
+            assertEquals("ERROR request line longer than " + Server.MAX_LINE + " bytes", client.in.readLine());
+            assertNull(client.in.readLine());
+        }
+    }
+
+    @Test
+    void testShutdown() throws Exception {
+        final Graph large = RandomKTree.generate(400, 14, 0.5, 4).graph;
+        final StringBuilder content = new StringBuilder();
+        int edges = 0;
+        for (int u = 1; u <= large.vertices; u++) {
+            for (int v : large.neighbors(u)) {
+                if (u < v) {
+                    content.append(u).append(' ').append(v).append('\n');
+                    edges++;
+                }
+            }
+        }
+        try (Client client = new Client(socket.getLocalPort())) {
+            assertEquals("OK", client.upload("GRAPH", "large", "p tw 400 " + edges + "\n" + content));
+            client.out.write("SOLVE large\n".getBytes(StandardCharsets.UTF_8));
+            client.out.flush();
+            Thread.sleep(200);
+            final long start = System.currentTimeMillis();
+            server.shutdown();
+            // the running solve is cancelled
+            assertTrue(client.in.readLine().startsWith("ERROR"));
+            assertTrue(System.currentTimeMillis() - start < 10_000);
+        }
+    }
+
+    @Test
+    void testMaxConnections() throws Exception {
+        Server limited = new Server(App.parse("--max-connections", "1", "--weight-cache", "0"), 1, 1L << 30);
+        try (ServerSocket limitedSocket = Server.bind(0)) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    limited.serve(limitedSocket);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            try (Client first = new Client(limitedSocket.getLocalPort())) {
+                assertTrue(first.request("STATS").startsWith("OK "));
+                try (Client second = new Client(limitedSocket.getLocalPort())) {
+                    assertEquals("ERROR too many connections", second.in.readLine());
+                }
+                assertEquals("ERROR FILE uploads need --data-dir", first.request("GRAPH g FILE g.gr"));
+            }
+        } finally {
+            limited.shutdown();
+        }
+    }
+
+    @Test
+    void testErrorFormat() {
+        assertEquals("ERROR NullPointerException", Server.error(new NullPointerException()));
+        assertEquals("ERROR unknown", Server.error(new IllegalArgumentException("unknown")));
+    }
+}
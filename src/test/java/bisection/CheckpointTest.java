@@ -0,0 +1,86 @@
+package bisection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+
+import static bisection.NiceTreeDecomposition.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckpointTest {
+    /**
+     * Cancels the solve after the given number of nodes.
+     */
+    private static final class Interrupt extends SolveMetrics {
+        final MaxBisection mb;
+        int nodes;
+
+        Interrupt(MaxBisection mb, int nodes) {
+            this.mb = mb;
+            this.nodes = nodes;
+        }
+
+        @Override
+        void node(NiceTreeNode node, long nanos, long bytes) {
+            super.node(node, nanos, bytes);
+            if (--nodes == 0) {
+                mb.cancel();
+            }
+        }
+    }
+
+    private static MaxBisection stream(NiceTreeDecomposition ntd, Path file, Table.Precision precision) {
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.schedule = MaxBisection.Schedule.STREAM;
+        mb.checkpoint = file;
+        mb.checkpointInterval = 0;
+        mb.resume = true;
+        mb.allocator.precision = precision;
+        return mb;
+    }
+
+    @Test
+    void testResume(@TempDir Path dir) {
+        NiceTreeDecomposition ntd = RandomKTree.generate(80, 4, 0.6, 11).normalize();
+        double expected = MaxBisection.compute(ntd);
+        Path file = dir.resolve("solve.checkpoint");
+
+        for (Table.Precision precision : Table.Precision.values()) {
+            MaxBisection first = stream(ntd, file, precision);
+            first.metrics = new Interrupt(first, ntd.numBags / 2);
+            assertThrows(CancellationException.class, first::solve);
+            assertTrue(Files.exists(file));
+
+            MaxBisection second = stream(ntd, file, precision);
+            second.metrics = new SolveMetrics();
+            assertEquals(expected, second.solve(), precision.name());
+            assertEquals(0, second.memory.live());
+            long computed = 0;
+            for (SolveMetrics.NodeType type : SolveMetrics.NodeType.values()) {
+                computed += second.metrics.count(type);
+            }
+            assertEquals(ntd.numBags - ntd.numBags / 2, computed);
+            assertFalse(Files.exists(file));
+        }
+    }
+
+    @Test
+    void testMismatch(@TempDir Path dir) {
+        NiceTreeDecomposition ntd = RandomKTree.generate(40, 3, 0.6, 12).normalize();
+        Path file = dir.resolve("solve.checkpoint");
+        MaxBisection first = stream(ntd, file, Table.Precision.DOUBLE);
+        first.metrics = new Interrupt(first, 10);
+        assertThrows(CancellationException.class, first::solve);
+
+        MaxBisection second = stream(ntd, file, Table.Precision.DOUBLE);
+        second.imbalance = 0.5;
+        assertThrows(IllegalStateException.class, second::solve);
+
+        MaxBisection layers = new MaxBisection(ntd);
+        layers.checkpoint = file;
+        assertThrows(IllegalStateException.class, layers::solve);
+    }
+}
@@ -0,0 +1,79 @@
+package bisection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static bisection.NiceTreeDecomposition.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CostModelTest {
+    @Test
+    void testTableEntries() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(40, 4, 0.5, 2).normalize();
+        CostModel cost = CostModel.of(ntd);
+        assertEquals(CostModel.cost(ntd), cost.tableEntries);
+        assertTrue(cost.largestTable <= cost.peakEntries);
+        assertTrue(cost.peakEntries <= cost.tableEntries);
+        assertTrue(cost.operations >= cost.tableEntries);
+        assertTrue(cost.estimateSeconds() > 0);
+    }
+
+    @Test
+    void testPeakMemory() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(100, 3, 0.7, 5).normalize();
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.schedule = MaxBisection.Schedule.POST_ORDER;
+        mb.allocator.precision = Table.Precision.DOUBLE;
+        mb.solve();
+        assertEquals(mb.memory.peak(), CostModel.of(ntd).peakBytes(Table.Precision.DOUBLE));
+    }
+
+    @Test
+    void testSchedulePeakMemory() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(100, 3, 0.7, 6).normalize();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (MaxBisection.Schedule schedule : MaxBisection.Schedule.values()) {
+                MaxBisection mb = new MaxBisection(ntd);
+                mb.schedule = schedule;
+                mb.pool = pool;
+                mb.allocator.precision = Table.Precision.SHORT;
+                mb.solve();
+                final long estimate = CostModel.peakBytes(ntd, schedule, Table.Precision.SHORT);
+                if (schedule == MaxBisection.Schedule.STREAM) {
+                    assertEquals(estimate, mb.memory.peak());
+                } else {
+                    assertTrue(mb.memory.peak() <= estimate, schedule.name());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(CostModel.of(ntd).peakEntries, CostModel.peakEntries(ntd, MaxBisection.Schedule.POST_ORDER));
+    }
+
+    @Test
+    void testBridgeCost() {
+        // {1,2,3} -> {3,4}: forget 1 and 2, then introduce 4
+        final double expected = CostModel.tableSize(2, 1) + CostModel.tableSize(1, 2) + CostModel.tableSize(2, 2);
+        assertEquals(expected, CostModel.bridgeCost(3, 1, 2, 0));
+
+        TreeDecomposition td = TreeDecomposition.fromString("s td 2 3 4\nb 1 3 4\nb 2 1 2 3\n1 2");
+        td.graph = Graph.fromString("p tw 4 3\n1 2\n2 3\n3 4");
+        NiceTreeDecomposition ntd = td.normalize();
+        NiceTreeNode node = ntd.treeRoot;
+        assertTrue(node instanceof IntroduceNode);
+        node = ((IntroduceNode) node).child;
+        assertTrue(node instanceof ForgetNode);
+        assertEquals(expected + CostModel.tableSize(3, 0), CostModel.cost(ntd));
+    }
+
+    @Test
+    void testJoinCost() {
+        // Huffman: 1 + 2, then 3 + 3
+        final double expected = CostModel.tableSize(2, 3) + CostModel.tableSize(2, 6);
+        assertEquals(expected, CostModel.joinCost(2, new long[]{3, 1, 2}, 3));
+        assertEquals(0.0, CostModel.joinCost(2, new long[]{3}, 1));
+    }
+}
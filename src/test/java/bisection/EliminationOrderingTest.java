@@ -0,0 +1,111 @@
+package bisection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static bisection.EliminationOrdering.Heuristic;
+import static bisection.TreeDecomposition.TreeNode;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EliminationOrderingTest {
+    @Test
+    void testKTree() {
+        // a complete k-tree has a perfect elimination ordering, both heuristics find it
+        for (Heuristic heuristic : Heuristic.values()) {
+            Graph graph = RandomKTree.generate(300, 4, 1.0, 3).graph;
+            TreeDecomposition td = EliminationOrdering.decompose(graph, heuristic);
+            assertEquals(4, td.width);
+            assertValid(td);
+        }
+    }
+
+    @Test
+    void testMaxBisection() {
+        for (long seed = 0; seed < 5; seed++) {
+            TreeDecomposition expected = RandomKTree.generate(16, 3, 0.5, seed);
+            for (Heuristic heuristic : Heuristic.values()) {
+                TreeDecomposition td = EliminationOrdering.decompose(expected.graph, heuristic);
+                assertValid(td);
+                assertEquals(MaxBisection.compute(expected.normalize()), MaxBisection.compute(td.normalize()), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void testRestarts() {
+        Graph graph = RandomKTree.generate(200, 6, 0.4, 7).graph;
+        TreeDecomposition single = EliminationOrdering.decompose(graph, Heuristic.MIN_DEGREE);
+        TreeDecomposition sequential = EliminationOrdering.decompose(graph, Heuristic.MIN_DEGREE, 8, 1, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TreeDecomposition parallel;
+        try {
+            parallel = EliminationOrdering.decompose(graph, Heuristic.MIN_DEGREE, 8, 1, pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(sequential.width <= single.width);
+        assertEquals(sequential.width, parallel.width);
+        assertValid(parallel);
+    }
+
+    @Test
+    void testDisconnected() {
+        Graph graph = Graph.fromString("p tw 6 3\n1 2\n3 4\n5 6");
+        TreeDecomposition td = EliminationOrdering.decompose(graph, Heuristic.MIN_FILL);
+        assertEquals(1, td.width);
+        assertEquals(6, td.countNodes());
+        assertValid(td);
+        assertEquals(3.0, MaxBisection.compute(td.normalize()));
+    }
+
+    @Test
+    void testInvalidOrder() {
+        Graph graph = Graph.fromString("p tw 3 2\n1 2\n2 3");
+        assertThrows(IllegalArgumentException.class, () -> EliminationOrdering.decompose(graph, new int[]{1, 2}));
+        assertThrows(IllegalArgumentException.class, () -> EliminationOrdering.decompose(graph, new int[]{1, 2, 2}));
+        assertThrows(IllegalArgumentException.class, () -> EliminationOrdering.decompose(graph, new int[]{1, 2, 4}));
+    }
+
+    /**
+     * Every edge is covered and the bags containing a vertex form a subtree.
+     */
+    private static void assertValid(TreeDecomposition td) {
+        final Graph graph = td.graph;
+        final List<TreeNode> nodes = new ArrayList<>();
+        final List<TreeNode> parents = new ArrayList<>();
+        nodes.add(td.root);
+        parents.add(null);
+        for (int i = 0; i < nodes.size(); i++) {
+            for (TreeNode child : nodes.get(i).childNodes) {
+                nodes.add(child);
+                parents.add(nodes.get(i));
+            }
+        }
+        for (int u = 1; u <= graph.vertices; u++) {
+            int subtreeRoots = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                TreeNode parent = parents.get(i);
+                if (contains(nodes.get(i), u) && (parent == null || !contains(parent, u))) {
+                    subtreeRoots++;
+                }
+            }
+            assertEquals(1, subtreeRoots, "bags of vertex " + u);
+            for (int v : graph.neighbors(u)) {
+                final int w = v;
+                final int x = u;
+                assertTrue(nodes.stream().anyMatch(node -> contains(node, x) && contains(node, w)));
+            }
+        }
+        for (TreeNode node : nodes) {
+            assertTrue(node.bag.length <= td.width + 1);
+        }
+    }
+
+    private static boolean contains(TreeNode node, int v) {
+        return Arrays.binarySearch(node.bag, v) >= 0;
+    }
+}
@@ -1,8 +1,17 @@
 package bisection;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class GraphTest {
     @Test
@@ -39,4 +48,77 @@ public class GraphTest {
         assertEquals(1.0, graph.getEdgeWeight(4, 5));
         assertEquals(0.0, graph.getEdgeWeight(1, 3));
     }
+
+    @Test
+    void testInvalidCounts() {
+        // counts that cannot fit into the input are rejected before anything is allocated
+        assertThrows(IllegalArgumentException.class, () -> Graph.fromString("p tw 5 2000000000\n1 2\n"));
+        assertThrows(IllegalArgumentException.class, () -> Graph.fromString("p tw 5 -1\n"));
+        assertThrows(IllegalArgumentException.class,
+                () -> TreeDecomposition.fromString("s td 2000000000 2 5\nb 1 1 2\n"));
+        assertEquals(5, Graph.fromString("p tw 5 2\n1 2\n2 3").vertices);
+    }
+
+    @Test
+    void testSparseEdgeWeight() {
+        Graph graph = new SparseGraph(10, new int[]{1, 3, 4, 2}, new int[]{2, 2, 5, 1});
+        graph.setEdgeWeight(5, 4, 2.5);
+
+        assertEquals(0.0, graph.getEdgeWeight(1, 3));
+        assertEquals(1.0, graph.getEdgeWeight(1, 2));
+        assertEquals(1.0, graph.getEdgeWeightSafe(3, 2));
+        assertEquals(2.5, graph.getEdgeWeight(4, 5));
+        assertEquals(3, ((SparseGraph) graph).numEdges());
+
+        // the edge set of a sparse graph is fixed
+        graph.setEdgeWeight(1, 3, 0.0);
+        assertThrows(IllegalArgumentException.class, () -> graph.setEdgeWeight(1, 3, 1.0));
+    }
+
+    @Test
+    void testSparseMatchesDense() {
+        String gr = "p tw 6 7\n1 2\n1 3\n2 3\n3 4\n4 5\n5 6\n4 6";
+        Graph dense = Graph.fromString(gr);
+        Graph sparse = Graph.fromString(gr, true);
+        assertTrue(sparse instanceof SparseGraph);
+
+        for (int u = 1; u <= 6; u++) {
+            for (int v = u + 1; v <= 6; v++) {
+                assertEquals(dense.getEdgeWeight(u, v), sparse.getEdgeWeight(u, v));
+            }
+        }
+        for (int v = 1; v <= 6; v++) {
+            assertArrayEquals(dense.neighbors(v), sparse.neighbors(v));
+        }
+        assertArrayEquals(new int[]{1, 2, 4}, dense.neighbors(3));
+        sparse.setEdgeWeight(3, 4, 0.0);
+        assertArrayEquals(new int[]{1, 2}, sparse.neighbors(3));
+    }
+
+    @Test
+    void testInvalidInput() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Graph.fromString("p tw 3 2\n1 2\n2 3 4"));
+        assertEquals("Invalid edge \"2 3 4\"", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> Graph.fromString("p td 3 2\n1 2\n2 3"));
+        assertThrows(IllegalArgumentException.class, () -> Graph.fromString("p tw 3 1\n 1 2"));
+        assertThrows(NumberFormatException.class, () -> Graph.fromString("p tw 3 1\n1 x"));
+    }
+
+    @Test
+    void testFile(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("path.gr");
+        Files.write(file, "c a path\r\np tw 4 3\r\n1 2\r\nc comment\r\n2 3\r\n3 4\r\n".getBytes(StandardCharsets.US_ASCII));
+        Graph graph = Graph.fromFile(file);
+
+        assertEquals(4, graph.vertices);
+        assertEquals(1.0, graph.getEdgeWeight(3, 4));
+        assertEquals(0.0, graph.getEdgeWeight(1, 4));
+        assertEquals(1.0, Graph.fromFile(file, true).getEdgeWeight(2, 3));
+
+        // the dense graph is the default and accepts new edges
+        assertEquals(Graph.class, graph.getClass());
+        graph.setEdgeWeight(1, 4, 2.0);
+        assertEquals(2.0, graph.getEdgeWeight(1, 4));
+    }
 }
@@ -1,9 +1,22 @@
 package bisection;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static bisection.NiceTreeDecomposition.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MaxBisectionTest {
@@ -42,6 +55,50 @@ public class MaxBisectionTest {
         }
     }
 
+    @Test
+    void testBagWeights() {
+        // 0/1 weights use the neighbor bitmasks, other weights the bag matrix
+        Random random = new Random(3);
+        for (boolean weighted : new boolean[]{false, true}) {
+            Graph g = new Graph(12);
+            for (int u = 1; u <= 12; u++) {
+                for (int v = u + 1; v <= 12; v++) {
+                    if (random.nextBoolean()) {
+                        g.setEdgeWeight(u, v, weighted ? random.nextInt(9) - 3 : 1);
+                    }
+                }
+            }
+            int[] bag = {1, 3, 4, 6, 7, 9, 10, 12};
+            assertEquals(!weighted, MaxBisection.neighborMasks(MaxBisection.bagWeights(bag, g), bag.length) != null);
+
+            NiceTreeNode leaf = new LeafNode(bag);
+            double[] weights = MaxBisection.computeWeightsLeafOrJoin(leaf, g);
+            for (int s = 0; s < leaf.numSubsets(); s++) {
+                double expected = 0.0;
+                for (int i = 0; i < bag.length; i++) {
+                    for (int j = 0; j < bag.length; j++) {
+                        if ((s & 1 << i) != 0 && (s & 1 << j) == 0) {
+                            expected += g.getEdgeWeightSafe(bag[i], bag[j]);
+                        }
+                    }
+                }
+                assertEquals(expected, weights[s]);
+            }
+
+            IntroduceNode intro = new IntroduceNode(leaf, 5);
+            double[] wds = MaxBisection.computeWeightsIntroduce(intro, g);
+            for (int s = 0; s < leaf.numSubsets(); s++) {
+                double expected = 0.0;
+                for (int i = 0; i < bag.length; i++) {
+                    if ((s & 1 << i) != 0) {
+                        expected += g.getEdgeWeightSafe(bag[i], 5);
+                    }
+                }
+                assertEquals(expected, wds[s]);
+            }
+        }
+    }
+
     @Test
     void testResult() {
         Graph g = TDExample.EXAMPLE_GRAPH;
@@ -52,4 +109,416 @@ public class MaxBisectionTest {
         double res2 = MaxBisection.compute(td2);
         assertEquals(res1, res2);
     }
+
+    @Test
+    void testRandomInstances() {
+        for (long seed = 0; seed < 5; seed++) {
+            TreeDecomposition td = RandomKTree.generate(14, 3, 0.6, seed);
+            double expected = MaxBisection.compute(new NiceTreeDecomposition(td.graph));
+            assertEquals(expected, MaxBisection.compute(td.normalize()));
+        }
+    }
+
+    @Test
+    void testParallelLayers() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(60, 4, 0.7, 42).normalize();
+        double expected = MaxBisection.compute(ntd);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, MaxBisection.compute(ntd, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testParallelSubtrees() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(80, 3, 0.7, 7).normalize();
+        double expected = MaxBisection.compute(ntd);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MaxBisection mb = new MaxBisection(ntd);
+            mb.pool = pool;
+            mb.schedule = MaxBisection.Schedule.SUBTREES;
+            assertEquals(expected, mb.solve());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testParallelSubtreesFailure() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(80, 3, 0.7, 7).normalize();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MaxBisection mb = new MaxBisection(ntd);
+            mb.pool = pool;
+            mb.schedule = MaxBisection.Schedule.SUBTREES;
+            final AtomicInteger nodes = new AtomicInteger(ntd.numBags / 2);
+            mb.metrics = new SolveMetrics() {
+                @Override
+                void node(NiceTreeNode node, long nanos, long bytes) {
+                    if (nodes.decrementAndGet() == 0) {
+                        throw new IllegalStateException("failed");
+                    }
+                }
+            };
+            assertThrows(IllegalStateException.class, mb::solve);
+            // the other tasks stopped and released their tables
+            assertEquals(0, mb.memory.live());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testParallelSubsets() {
+        // a single bag with more than one block of subsets
+        NiceTreeDecomposition ntd = new NiceTreeDecomposition(RandomKTree.generate(MaxBisection.BLOCK_BITS + 2, 4, 0.5, 3).graph);
+        double expected = MaxBisection.compute(ntd);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, MaxBisection.compute(ntd, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testBlockWeights() {
+        Graph g = RandomKTree.generate(MaxBisection.BLOCK_BITS + 3, 5, 0.5, 11).graph;
+        NiceTreeNode leaf = new LeafNode(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15});
+        double[] weights = MaxBisection.computeWeightsLeafOrJoin(leaf, g);
+        for (int s = 0; s < leaf.numSubsets(); s += 97) {
+            double w = 0.0;
+            for (int u = 0; u < leaf.size(); u++) {
+                for (int v = 0; v < leaf.size(); v++) {
+                    if ((s & (1 << u)) != 0 && (s & (1 << v)) == 0) {
+                        w += g.getEdgeWeightSafe(leaf.bag[u], leaf.bag[v]);
+                    }
+                }
+            }
+            assertEquals(w, weights[s]);
+        }
+    }
+
+    @Test
+    void testPostOrderMemory() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(100, 3, 0.7, 5).normalize();
+        MaxBisection layers = new MaxBisection(ntd);
+        MaxBisection postOrder = new MaxBisection(ntd);
+        postOrder.schedule = MaxBisection.Schedule.POST_ORDER;
+
+        assertEquals(layers.solve(), postOrder.solve());
+        assertEquals(0, layers.memory.live());
+        assertEquals(0, postOrder.memory.live());
+        assertTrue(postOrder.memory.peak() > 0);
+        assertTrue(postOrder.memory.peak() <= layers.memory.peak());
+        assertEquals(ntd.numBags, MaxBisection.postOrder(ntd).size());
+    }
+
+    @Test
+    void testStream() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(100, 3, 0.7, 5).normalize();
+        MaxBisection layers = new MaxBisection(ntd);
+        MaxBisection stream = new MaxBisection(ntd);
+        stream.schedule = MaxBisection.Schedule.STREAM;
+        assertEquals(layers.solve(), stream.solve());
+        assertEquals(0, stream.memory.live());
+        assertTrue(stream.memory.peak() <= layers.memory.peak());
+
+        // a path keeps at most the tables of a node and its child
+        Graph path = new Graph(200);
+        for (int v = 1; v < 200; v++) {
+            path.addEdge(v, v + 1);
+        }
+        NiceTreeDecomposition pathNtd = EliminationOrdering.decompose(path, EliminationOrdering.Heuristic.MIN_DEGREE)
+                .normalize();
+        MaxBisection mb = new MaxBisection(pathNtd);
+        mb.schedule = MaxBisection.Schedule.STREAM;
+        mb.allocator.precision = Table.Precision.DOUBLE;
+        assertEquals(199.0, mb.solve());
+        long largest = 0;
+        for (List<NiceTreeNode> layer : pathNtd.layers()) {
+            for (NiceTreeNode node : layer) {
+                largest = Math.max(largest, TableMemory.bytes(node, Table.Precision.DOUBLE));
+            }
+        }
+        assertTrue(mb.memory.peak() <= 2 * largest);
+    }
+
+    @Test
+    void testSpilling(@TempDir Path dir) throws IOException {
+        NiceTreeDecomposition ntd = RandomKTree.generate(60, 3, 0.7, 9).normalize();
+        MaxBisection onHeap = new MaxBisection(ntd);
+        onHeap.schedule = MaxBisection.Schedule.POST_ORDER;
+        double expected = onHeap.solve();
+
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.schedule = MaxBisection.Schedule.POST_ORDER;
+        mb.allocator.spillDirectory = dir;
+        mb.allocator.mapThreshold = 1024;
+        mb.heapBudget = 0;
+        assertEquals(expected, mb.solve());
+        assertTrue(mb.memory.peak() < onHeap.memory.peak());
+
+        // all temporary files are removed
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testPartition() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            testPartition(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void testPartition(ForkJoinPool pool) {
+        for (long seed = 0; seed < 8; seed++) {
+            TreeDecomposition td = RandomKTree.generate(25 + (int) seed, 3, 0.5, seed);
+            NiceTreeDecomposition ntd = td.normalize();
+            final double expected = MaxBisection.compute(ntd);
+            for (MaxBisection.Schedule schedule : MaxBisection.Schedule.values()) {
+                for (long budget : new long[]{Long.MAX_VALUE, 1 << 10, 0}) {
+                    MaxBisection mb = new MaxBisection(ntd);
+                    mb.schedule = schedule;
+                    mb.pool = seed % 2 == 0 ? pool : null;
+                    mb.backPointerBudget = budget;
+                    Bisection bisection = mb.solvePartition();
+                    assertEquals(expected, bisection.size);
+                    assertEquals(expected, bisection.cutWeight(ntd.graph), 1e-9);
+                    final int first = bisection.vertices(true).length;
+                    final int second = bisection.vertices(false).length;
+                    assertEquals(ntd.graph.vertices, first + second);
+                    assertTrue(Math.abs(first - second) <= 1);
+                    assertEquals(0, mb.memory.live());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testPartitionImbalance() {
+        for (long seed = 0; seed < 4; seed++) {
+            NiceTreeDecomposition ntd = RandomKTree.generate(20, 3, 0.5, seed).normalize();
+            // four vertices that are in no bag
+            Graph graph = new Graph(ntd.graph.vertices + 4);
+            for (int u = 1; u <= ntd.graph.vertices; u++) {
+                for (int v : ntd.graph.neighbors(u)) {
+                    if (u < v) {
+                        graph.setEdgeWeight(u, v, ntd.graph.getEdgeWeight(u, v));
+                    }
+                }
+            }
+            MaxBisection mb = new MaxBisection(new NiceTreeDecomposition(graph, ntd.treeRoot));
+            for (double imbalance : new double[]{0.0, 0.2, 0.5}) {
+                mb.imbalance = imbalance;
+                mb.backPointerBudget = seed % 2 == 0 ? Long.MAX_VALUE : 1 << 8;
+                Bisection bisection = mb.solvePartition();
+                assertEquals(bisection.size, bisection.cutWeight(graph), 1e-9);
+                assertWithinBounds(bisection, graph.vertices, imbalance);
+            }
+        }
+    }
+
+    @Test
+    void testPartitionIncremental() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(200, 4, 0.5, 11).normalize();
+        Graph graph = ntd.graph;
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.incremental = true;
+        mb.imbalance = 0.1;
+        mb.backPointerBudget = 1 << 12;
+        mb.solve();
+
+        Random random = new Random(5);
+        for (int round = 0; round < 3; round++) {
+            final int u = 1 + random.nextInt(graph.vertices);
+            final int[] neighbors = graph.neighbors(u);
+            graph.setEdgeWeight(u, neighbors[random.nextInt(neighbors.length)], random.nextInt(5));
+            MaxBisection full = new MaxBisection(ntd);
+            full.imbalance = mb.imbalance;
+            Bisection bisection = mb.solvePartition();
+            assertEquals(full.solve(), bisection.size);
+            assertEquals(bisection.size, bisection.cutWeight(graph), 1e-9);
+            assertWithinBounds(bisection, graph.vertices, mb.imbalance);
+            // the recorded nodes near the root, not the whole tree
+            assertTrue(mb.recomputed < ntd.numBags / 2, "recomputed " + mb.recomputed);
+        }
+
+        // with enough budget the traceback does not solve any subtree again
+        mb.backPointerBudget = Long.MAX_VALUE;
+        mb.metrics = new SolveMetrics();
+        mb.solvePartition();
+        long computed = 0;
+        for (SolveMetrics.NodeType type : SolveMetrics.NodeType.values()) {
+            computed += mb.metrics.count(type);
+        }
+        assertEquals(mb.recomputed, computed);
+        mb.clear();
+    }
+
+    private static void assertWithinBounds(Bisection bisection, int vertices, double imbalance) {
+        final int maxSize = (int) Math.min(vertices, Math.floor((1 + imbalance) * ((vertices + 1) / 2)));
+        final int first = bisection.vertices(true).length;
+        final int second = bisection.vertices(false).length;
+        assertEquals(vertices, first + second);
+        assertTrue(first <= maxSize && second <= maxSize, first + " / " + second);
+    }
+
+    @Test
+    void testPartitionExample() {
+        MaxBisection mb = new MaxBisection(new NiceTreeDecomposition(TDExample.EXAMPLE_GRAPH, TDExample.EXAMPLE_TREE));
+        Bisection bisection = mb.solvePartition();
+        assertEquals(MaxBisection.compute(new NiceTreeDecomposition(TDExample.EXAMPLE_GRAPH)), bisection.size);
+        assertEquals(bisection.size, bisection.cutWeight(TDExample.EXAMPLE_GRAPH));
+    }
+
+    @Test
+    void testObjectives() {
+        for (long seed = 0; seed < 6; seed++) {
+            TreeDecomposition td = RandomKTree.generate(13, 3, 0.6, seed);
+            NiceTreeDecomposition ntd = td.normalize();
+            final double[] max = bruteForceProfile(ntd.graph, true);
+            final double[] min = bruteForceProfile(ntd.graph, false);
+
+            MaxBisection mb = new MaxBisection(ntd);
+            assertArrayEquals(max, mb.solveProfile());
+            assertEquals(max[6], mb.solve());
+            mb.objective = MaxBisection.Objective.MIN;
+            assertArrayEquals(min, mb.solveProfile());
+            assertEquals(min[6], mb.solve());
+            Bisection bisection = mb.solvePartition();
+            assertEquals(min[6], bisection.size);
+            assertEquals(min[6], bisection.cutWeight(ntd.graph));
+
+            // each side has at most 1.5 * 7 = 10 vertices
+            mb.imbalance = 0.5;
+            double best = Double.POSITIVE_INFINITY;
+            for (int k = 3; k <= 10; k++) {
+                best = Math.min(best, min[k]);
+            }
+            assertEquals(best, mb.solve());
+            bisection = mb.solvePartition();
+            assertEquals(best, bisection.cutWeight(ntd.graph));
+            assertTrue(bisection.vertices(true).length <= 10 && bisection.vertices(false).length <= 10);
+        }
+    }
+
+    /**
+     * Best cut for every size of the first side by enumerating all subsets.
+     */
+    private static double[] bruteForceProfile(Graph graph, boolean maximize) {
+        final int n = graph.vertices;
+        final double[] profile = new double[n + 1];
+        Arrays.fill(profile, maximize ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        for (int set = 0; set < 1 << n; set++) {
+            double cut = 0.0;
+            for (int u = 1; u <= n; u++) {
+                for (int v = u + 1; v <= n; v++) {
+                    if (((set >> (u - 1)) & 1) != ((set >> (v - 1)) & 1)) {
+                        cut += graph.getEdgeWeight(u, v);
+                    }
+                }
+            }
+            final int k = Integer.bitCount(set);
+            profile[k] = maximize ? Math.max(profile[k], cut) : Math.min(profile[k], cut);
+        }
+        return profile;
+    }
+
+    @Test
+    void testIncrementalPrecision() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(40, 3, 0.6, 5).normalize();
+        Graph graph = ntd.graph;
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.incremental = true;
+        mb.allocator.precision = Table.Precision.exactFor(graph);
+        assertEquals(Table.Precision.SHORT, mb.allocator.precision);
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+
+        // the optimal cut no longer fits into a short
+        final int u = 1;
+        graph.setEdgeWeight(u, graph.neighbors(u)[0], 40000.0);
+        final double expected = MaxBisection.compute(ntd);
+        assertTrue(expected > Short.MAX_VALUE);
+        assertEquals(expected, mb.solve());
+        assertEquals(Table.Precision.INT, mb.allocator.precision);
+        assertEquals(ntd.numBags, mb.recomputed);
+
+        graph.setEdgeWeight(u, graph.neighbors(u)[0], 0.5);
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+        assertEquals(Table.Precision.DOUBLE, mb.allocator.precision);
+        mb.clear();
+    }
+
+    @Test
+    void testIncremental() {
+        TreeDecomposition td = RandomKTree.generate(200, 4, 0.5, 11);
+        NiceTreeDecomposition ntd = td.normalize();
+        Graph graph = ntd.graph;
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.incremental = true;
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+        assertEquals(ntd.numBags, mb.recomputed);
+
+        // nothing changed
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+        assertEquals(0, mb.recomputed);
+
+        Random random = new Random(3);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3; i++) {
+                final int u = 1 + random.nextInt(graph.vertices);
+                final int[] neighbors = graph.neighbors(u);
+                if (neighbors.length > 0) {
+                    graph.setEdgeWeight(u, neighbors[random.nextInt(neighbors.length)], random.nextInt(5));
+                }
+            }
+            assertEquals(MaxBisection.compute(ntd), mb.solve());
+            assertTrue(mb.recomputed < ntd.numBags / 2, "recomputed " + mb.recomputed);
+        }
+
+        mb.objective = MaxBisection.Objective.MIN;
+        MaxBisection min = new MaxBisection(ntd);
+        min.objective = MaxBisection.Objective.MIN;
+        assertEquals(min.solve(), mb.solve());
+
+        mb.clear();
+        assertEquals(0, mb.memory.live());
+        graph.setEdgeWeight(1, 2, 3.0);
+    }
+
+    @Test
+    void testMaxPlusConvolution() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            double[] a = new double[1 + random.nextInt(8)];
+            double[] b = new double[1 + random.nextInt(8)];
+            for (double[] row : new double[][]{a, b}) {
+                for (int l = 0; l < row.length; l++) {
+                    // every other pair of rows is concave
+                    row[l] = i % 2 == 0 ? random.nextInt(20) : -(l - 3) * (l - 3) + random.nextInt(2) * l;
+                }
+                if (random.nextInt(4) == 0) {
+                    row[random.nextInt(row.length)] = Double.NEGATIVE_INFINITY;
+                }
+            }
+
+            double[] out = new double[a.length + b.length - 1];
+            MaxBisection.maxPlusConvolution(a, b, out);
+            for (int l = 0; l < out.length; l++) {
+                double expected = Double.NEGATIVE_INFINITY;
+                for (int l1 = Math.max(0, l - b.length + 1); l1 <= Math.min(l, a.length - 1); l1++) {
+                    expected = Math.max(expected, a[l1] + b[l - l1]);
+                }
+                assertEquals(expected, out[l]);
+            }
+        }
+    }
 }
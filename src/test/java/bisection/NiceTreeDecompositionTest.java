@@ -2,6 +2,12 @@ package bisection;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
 import static bisection.NiceTreeDecomposition.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,13 +31,34 @@ public class NiceTreeDecompositionTest {
         NiceTreeDecomposition td = new NiceTreeDecomposition(g, in4);
 
         assertEquals(2, td.width);
-        assertEquals(8, td.layers.size());
+        assertEquals(8, td.layers().size());
 
-        for(NiceTreeNode node : td.layers.get(td.layers.size()-1)) {
+        for(NiceTreeNode node : td.layers().get(td.layers().size()-1)) {
             assertTrue(node instanceof LeafNode);
         }
 
-        assertFalse(td.layers.get(td.layers.size() - 1).contains(leaf2));
+        assertFalse(td.layers().get(td.layers().size() - 1).contains(leaf2));
+        // built once
+        assertSame(td.layers(), td.layers());
+        assertEquals(td.numBags, td.layers().stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void testPostOrder() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(50, 3, 0.6, 8).normalize();
+        Set<NiceTreeNode> visited = new HashSet<>();
+        Iterator<NiceTreeNode> order = NiceTreeDecomposition.postOrder(ntd.treeRoot);
+        NiceTreeNode last = null;
+        while (order.hasNext()) {
+            last = order.next();
+            for (NiceTreeNode child : last.children()) {
+                assertTrue(visited.contains(child), "child before parent");
+            }
+            assertTrue(visited.add(last));
+        }
+        assertSame(ntd.treeRoot, last);
+        assertEquals(ntd.numBags, visited.size());
+        assertThrows(NoSuchElementException.class, order::next);
     }
 
     @Test
@@ -39,7 +66,7 @@ public class NiceTreeDecompositionTest {
         Graph g = TDExample.EXAMPLE_GRAPH;
         NiceTreeDecomposition td = new NiceTreeDecomposition(g);
         assertEquals(g.vertices-1, td.width);
-        assertEquals(1, td.layers.size());
+        assertEquals(1, td.layers().size());
     }
 
     @Test
@@ -0,0 +1,57 @@
+package bisection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class SolveMetricsTest {
+    @Test
+    void testCounts() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(60, 3, 0.6, 4).normalize();
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.metrics = new SolveMetrics();
+        mb.metrics.slowest = 5;
+        mb.solve();
+
+        long nodes = 0;
+        for (SolveMetrics.NodeType type : SolveMetrics.NodeType.values()) {
+            nodes += mb.metrics.count(type);
+        }
+        assertEquals(ntd.numBags, nodes);
+        assertEquals(ntd.layers().size(), mb.metrics.layerNanos().size());
+        assertEquals(mb.memory.peak(), mb.metrics.peakBytes());
+        assertTrue(mb.metrics.tableBytes() >= mb.metrics.peakBytes());
+
+        List<SolveMetrics.NodeTiming> slowest = mb.metrics.slowestNodes();
+        assertEquals(5, slowest.size());
+        for (int i = 1; i < slowest.size(); i++) {
+            assertTrue(slowest.get(i - 1).nanos >= slowest.get(i).nanos);
+        }
+        assertTrue(mb.metrics.toJson().contains("\"slowestNodes\""));
+    }
+
+    @Test
+    void testNoSlowest() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(30, 3, 0.6, 4).normalize();
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.metrics = new SolveMetrics();
+        mb.metrics.slowest = 0;
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+        assertTrue(mb.metrics.slowestNodes().isEmpty());
+    }
+
+    @Test
+    void testJfr() {
+        // the flight recorder exists since Java 9 (and 8u262)
+        assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+        assertTrue(SolveMetrics.jfrSupported());
+        NiceTreeDecomposition ntd = RandomKTree.generate(30, 3, 0.6, 4).normalize();
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.metrics = new SolveMetrics();
+        mb.metrics.jfr = true;
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+    }
+}
@@ -0,0 +1,132 @@
+package bisection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static bisection.NiceTreeDecomposition.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TableTest {
+    @Test
+    void testChunkBits() {
+        assertEquals(3, Table.chunkBits(8, 1));
+        assertEquals(30, Table.chunkBits(1 << 30, 1));
+        assertEquals(20, Table.chunkBits(1 << 25, 1000));
+        assertEquals(0, Table.chunkBits(4, 1 << 30));
+    }
+
+    @Test
+    void testRows() {
+        NiceTreeNode node = new ForgetNode(new LeafNode(new int[]{1, 2, 3, 4}), 2);
+        Table table = new TableAllocator().allocate(node);
+        assertEquals(8, table.rows);
+        assertEquals(2, table.stride);
+
+        for (int s = 0; s < table.rows; s++) {
+            table.setRow(s, new double[]{s, -s});
+        }
+        double[] row = new double[2];
+        table.getRow(5, row);
+        assertArrayEquals(new double[]{5, -5}, row);
+        assertEquals(-7, table.get(7, 1));
+        assertEquals(8 * 2 * Double.BYTES, table.bytes());
+    }
+
+    @Test
+    void testPooling() {
+        NiceTreeNode leaf = new LeafNode(new int[]{1, 2, 3});
+        TableAllocator allocator = new TableAllocator(1 << 20);
+        Table table = allocator.allocate(leaf);
+        allocator.release(table);
+        assertEquals(table.bytes(), allocator.pooledBytes());
+
+        Table reused = allocator.allocate(leaf);
+        assertSame(((Table.DoubleTable) table).chunks[0], ((Table.DoubleTable) reused).chunks[0]);
+        assertEquals(0, allocator.pooledBytes());
+
+        // pool limit
+        allocator.maxPooledBytes = 0;
+        allocator.release(reused);
+        assertEquals(0, allocator.pooledBytes());
+    }
+
+    @Test
+    void testOverflow() {
+        NiceTreeNode leaf = new LeafNode(new int[]{1});
+        TableAllocator allocator = new TableAllocator();
+        allocator.precision = Table.Precision.SHORT;
+        Table table = allocator.allocate(leaf);
+        table.setRow(0, new double[]{Short.MAX_VALUE});
+        table.setRow(1, new double[]{Double.NEGATIVE_INFINITY});
+        assertEquals(Double.NEGATIVE_INFINITY, table.get(1, 0));
+        assertThrows(ArithmeticException.class, () -> table.setRow(0, new double[]{Short.MAX_VALUE + 1}));
+        assertThrows(ArithmeticException.class, () -> table.setRow(0, new double[]{Short.MIN_VALUE}));
+
+        allocator.precision = Table.Precision.INT;
+        Table ints = allocator.allocate(leaf);
+        ints.setRow(0, new double[]{Integer.MAX_VALUE});
+        assertThrows(ArithmeticException.class, () -> ints.setRow(0, new double[]{1L << 31}));
+        assertThrows(ArithmeticException.class, () -> ints.setRow(0, new double[]{0.5}));
+    }
+
+    @Test
+    void testPrecision() {
+        Graph g = RandomKTree.generate(40, 3, 0.8, 1).graph;
+        assertEquals(Table.Precision.SHORT, Table.Precision.exactFor(g));
+        g.setEdgeWeight(1, 2, 40000.0);
+        assertEquals(Table.Precision.INT, Table.Precision.exactFor(g));
+        g.setEdgeWeight(1, 2, 0.5);
+        assertEquals(Table.Precision.DOUBLE, Table.Precision.exactFor(g));
+    }
+
+    @Test
+    void testNarrowTables() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(50, 4, 0.6, 2).normalize();
+        double expected = MaxBisection.compute(ntd);
+
+        for (Table.Precision precision : Table.Precision.values()) {
+            MaxBisection mb = new MaxBisection(ntd);
+            mb.allocator.precision = precision;
+            assertEquals(expected, mb.solve(), precision.name());
+        }
+
+        NiceTreeNode node = new ForgetNode(new LeafNode(new int[]{1, 2}), 1);
+        TableAllocator allocator = new TableAllocator();
+        allocator.precision = Table.Precision.SHORT;
+        Table table = allocator.allocate(node);
+        table.setRow(1, new double[]{Double.NEGATIVE_INFINITY, 3});
+        assertEquals(Double.NEGATIVE_INFINITY, table.get(1, 0));
+        assertEquals(3, table.get(1, 1));
+        assertEquals(2 * 2 * Short.BYTES, table.bytes());
+    }
+
+    @Test
+    void testMappedPrecision(@TempDir Path dir) {
+        NiceTreeNode node = new ForgetNode(new LeafNode(new int[]{1, 2}), 1);
+        TableAllocator allocator = new TableAllocator();
+        allocator.spillDirectory = dir;
+        allocator.mapThreshold = 0;
+        for (Table.Precision precision : Table.Precision.values()) {
+            allocator.precision = precision;
+            Table table = allocator.allocate(node);
+            assertTrue(table instanceof MappedTable);
+            assertEquals(TableMemory.bytes(node, precision), table.bytes());
+            table.setRow(1, new double[]{Double.NEGATIVE_INFINITY, 3});
+            assertEquals(Double.NEGATIVE_INFINITY, table.get(1, 0));
+            assertEquals(3, table.get(1, 1));
+            allocator.release(table);
+        }
+
+        allocator.precision = Table.Precision.SHORT;
+        allocator.mapThreshold = Long.MAX_VALUE;
+        Table heap = allocator.allocate(node);
+        heap.setRow(0, new double[]{-2, 7});
+        Table spilled = allocator.spill(heap);
+        assertEquals(2 * 2 * Short.BYTES, spilled.bytes());
+        assertEquals(7, spilled.get(0, 1));
+        assertThrows(ArithmeticException.class, () -> spilled.setRow(0, new double[]{0.5, 0}));
+        allocator.release(spilled);
+    }
+}
@@ -2,6 +2,9 @@ package bisection;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TreeDecompositionTest {
@@ -83,4 +86,121 @@ public class TreeDecompositionTest {
         );
         assertNotNull(td.root);
     }
+
+    @Test
+    void testInvalidInput() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> TreeDecomposition.fromString("s td 2 2 3\nb 1 1 2\nb 02 2 3\n1 2"));
+        assertEquals("Invalid bag \"b 02 2 3\"", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class,
+                () -> TreeDecomposition.fromString("s td 2 2 3\nb 1 1 2\nb 2 2 3\n1 2 3"));
+        assertEquals("Invalid tree edge \"1 2 3\"", e.getMessage());
+    }
+
+    @Test
+    void testRoot() {
+        String input = "s td 4 3 5\n" +
+                "b 1 1 2 3\n" +
+                "b 2 2 3 4\n" +
+                "b 3 3 4 5\n" +
+                "b 4\n" +
+                "1 2\n" +
+                "2 3\n" +
+                "2 4";
+        TreeDecomposition td = TreeDecomposition.fromString(input, 3);
+        assertArrayEquals(new int[]{3, 4, 5}, td.root.bag);
+        assertEquals(1, td.root.childNodes.size());
+        assertEquals(2, td.root.childNodes.get(0).childNodes.size());
+        assertEquals(4, td.countNodes());
+
+        TreeDecomposition.TreeNode leaf = td.root.childNodes.get(0).childNodes.get(0);
+        td.reroot(leaf);
+        assertSame(leaf, td.root);
+        assertEquals(1, td.root.childNodes.size());
+        assertEquals(4, td.countNodes());
+    }
+
+    @Test
+    void testNotATree() {
+        assertThrows(IllegalStateException.class, () -> TreeDecomposition.fromString(
+                "s td 3 2 3\nb 1 1 2\nb 2 2 3\nb 3 3\n1 2\n2 1"));
+        assertThrows(IllegalStateException.class, () -> TreeDecomposition.fromString(
+                "s td 3 2 3\nb 1 1 2\nb 2 2 3\nb 3 3\n1 2\n2 3\n1 3"));
+    }
+
+    @Test
+    void testPathDecomposition() {
+        // edges in reverse order, every edge connects to the root only after all others were read
+        final int n = 100000;
+        StringBuilder input = new StringBuilder("s td " + n + " 1 " + n + "\n");
+        for (int i = 1; i <= n; i++) {
+            input.append("b ").append(i).append(' ').append(i).append('\n');
+        }
+        for (int i = n - 1; i >= 1; i--) {
+            input.append(i).append(' ').append(i + 1).append('\n');
+        }
+        TreeDecomposition td = TreeDecomposition.fromString(input.toString());
+        assertEquals(n, td.countNodes());
+        // no recursion on deep trees
+        assertEquals(2 * n - 1, td.normalize().numBags);
+        td.optimize();
+        assertEquals(n, td.countNodes());
+    }
+
+    @Test
+    void testOptimize() {
+        for (long seed = 0; seed < 10; seed++) {
+            TreeDecomposition td = RandomKTree.generate(14, 3, 0.6, seed);
+            final double expected = MaxBisection.compute(td.normalize());
+            final int numBags = td.countNodes();
+
+            td.optimize();
+            assertTrue(td.countNodes() <= numBags);
+            NiceTreeDecomposition ntd = td.normalize();
+            assertEquals(expected, MaxBisection.compute(ntd), 1e-9);
+
+            // no other root is cheaper
+            final double cost = CostModel.cost(ntd);
+            for (TreeDecomposition.TreeNode node : nodes(td)) {
+                assertNoRedundantChild(node);
+                td.reroot(node);
+                assertTrue(cost <= CostModel.cost(td.normalize()) * (1 + 1e-12));
+            }
+        }
+    }
+
+    @Test
+    void testRedundantBags() {
+        TreeDecomposition td = TreeDecomposition.fromString(
+                "s td 5 3 4\n" +
+                        "b 1 1\n" +
+                        "b 2 1 2 3\n" +
+                        "b 3 2 3\n" +
+                        "b 4 2 3 4\n" +
+                        "b 5\n" +
+                        "1 2\n" +
+                        "2 3\n" +
+                        "3 4\n" +
+                        "3 5"
+        );
+        td.optimize();
+        assertEquals(2, td.countNodes());
+        assertEquals(1, td.root.childNodes.size());
+    }
+
+    private static void assertNoRedundantChild(TreeDecomposition.TreeNode node) {
+        for (TreeDecomposition.TreeNode child : node.childNodes) {
+            assertFalse(TreeDecomposition.isSubset(child.bag, node.bag));
+            assertFalse(TreeDecomposition.isSubset(node.bag, child.bag));
+        }
+    }
+
+    private static List<TreeDecomposition.TreeNode> nodes(TreeDecomposition td) {
+        List<TreeDecomposition.TreeNode> nodes = new ArrayList<>();
+        nodes.add(td.root);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.addAll(nodes.get(i).childNodes);
+        }
+        return nodes;
+    }
 }
@@ -0,0 +1,82 @@
+package bisection;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeightCacheTest {
+    @Test
+    void testSolve() {
+        NiceTreeDecomposition ntd = RandomKTree.generate(80, 4, 0.5, 6).normalize();
+        double expected = MaxBisection.compute(ntd);
+
+        MaxBisection mb = new MaxBisection(ntd);
+        mb.weightCache = new WeightCache(1 << 20);
+        assertEquals(expected, mb.solve());
+        final long misses = mb.weightCache.misses();
+        assertTrue(mb.weightCache.hits() > 0);
+
+        // a second solve of the same graph only hits
+        mb.solve();
+        assertEquals(misses, mb.weightCache.misses());
+
+        // changed weights are never served from the cache
+        ntd.graph.setEdgeWeight(1, 2, 5.0);
+        assertEquals(MaxBisection.compute(ntd), mb.solve());
+        assertTrue(mb.weightCache.misses() > misses);
+    }
+
+    @Test
+    void testEviction() {
+        Graph g = Graph.fromString("p tw 4 3\n1 2\n2 3\n3 4");
+        WeightCache cache = new WeightCache(3 * 4 * Double.BYTES);
+        for (int v = 1; v <= 4; v++) {
+            int[] bag = {v, v % 4 + 1};
+            cache.get(g, bag, 0, () -> new double[4]);
+            assertTrue(cache.bytes() <= 3 * 4 * Double.BYTES);
+        }
+        assertEquals(3 * 4 * Double.BYTES, cache.bytes());
+        assertEquals(4, cache.misses());
+
+        // least recently used bag {1,2} was evicted
+        cache.get(g, new int[]{1, 2}, 0, () -> new double[4]);
+        assertEquals(5, cache.misses());
+        cache.get(g, new int[]{4, 1}, 0, () -> new double[4]);
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void testStaleVersions() {
+        Graph g = Graph.fromString("p tw 3 2\n1 2\n2 3");
+        WeightCache cache = new WeightCache(1 << 20);
+        cache.get(g, new int[]{1, 2}, 0, () -> new double[4]);
+        cache.get(g, new int[]{2, 3}, 0, () -> new double[4]);
+        assertEquals(2 * 4 * Double.BYTES, cache.bytes());
+
+        // entries of the old weights are dropped with the first entry of the new ones
+        g.setEdgeWeight(1, 2, 2.0);
+        cache.get(g, new int[]{1, 2}, 0, () -> new double[4]);
+        assertEquals(4 * Double.BYTES, cache.bytes());
+    }
+
+    @Test
+    void testCollectedGraph() throws InterruptedException {
+        WeightCache cache = new WeightCache(1 << 20);
+        Graph g = Graph.fromString("p tw 3 2\n1 2\n2 3");
+        cache.get(g, new int[]{1, 2}, 0, () -> new double[4]);
+        WeakReference<Graph> reference = new WeakReference<>(g);
+        g = null;
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // the cache does not keep the graph reachable
+        assertNull(reference.get());
+
+        Graph other = Graph.fromString("p tw 2 1\n1 2");
+        cache.get(other, new int[]{1, 2}, 0, () -> new double[4]);
+        assertEquals(4 * Double.BYTES, cache.bytes());
+    }
+}